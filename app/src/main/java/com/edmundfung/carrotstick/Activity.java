@@ -32,6 +32,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.edmundfung.common.controller.Bot;
+import com.edmundfung.common.controller.ControlLoop;
 import com.edmundfung.common.helpers.BluetoothPermissionHelper;
 import com.edmundfung.common.helpers.CameraPermissionHelper;
 import com.edmundfung.common.helpers.DisplayRotationHelper;
@@ -43,8 +44,10 @@ import com.edmundfung.common.rendering.PlaneRenderer;
 import com.edmundfung.common.rendering.PointCloudRenderer;
 import com.edmundfung.common.vision.ColoredAnchor;
 import com.edmundfung.common.vision.Human;
+import com.edmundfung.common.vision.PosePipeline;
 import com.edmundfung.common.vision.TensorFlowPoseDetector;
 import com.edmundfung.common.vision.Tracker;
+import com.edmundfung.common.vision.TrackerState;
 import com.google.ar.core.Frame;
 import com.google.ar.core.Plane;
 import com.google.ar.core.PointCloud;
@@ -79,8 +82,38 @@ public class Activity extends AppCompatActivity implements GLSurfaceView.Rendere
   private final Bot bot = new Bot(this);
   private Tracker tracker;
 
+  // The robot is driven from its own thread at a fixed rate, from the latest tracker state.
+  private static final int controlRate = 40;
+  // The status text is only refreshed every this many control ticks
+  private static final int statusDecimation = 10;
+  // and the control jitter histogram logged every this many
+  private static final int jitterLogDecimation = controlRate * 10;
+  private final ControlLoop controlLoop = new ControlLoop("control", controlRate,
+      new Runnable() {
+        @Override
+        public void run() {
+          control();
+        }
+      });
+  private int controlTicks = 0;
+  // Capture to command latency: from when the frame of a detection reached the tracker to the
+  // first command sent with it, averaged over recent detections
+  private long lastDetectionTime = 0;
+  private double commandLatencyMs = 0;
+  private double maxCommandLatencyMs = 0;
+  private volatile String statusText = "";
+  private final Runnable showStatus =
+      new Runnable() {
+        @Override
+        public void run() {
+          mainText.setText(statusText);
+        }
+      };
+
   // Temporary matrix allocated here to reduce number of allocations for each frame.
   private final float[] anchorMatrix = new float[16];
+  // Waypoints to draw, copied from the tracker every frame
+  private ColoredAnchor[] anchors;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -94,6 +127,7 @@ public class Activity extends AppCompatActivity implements GLSurfaceView.Rendere
     surfaceView.setOnTouchListener(tapHelper);
     tracker = new Tracker(this, getAssets());
     tracker.SetTapHelper(tapHelper);
+    anchors = new ColoredAnchor[tracker.GetAnchorCapacity()];
 
     // Set up renderer.
     surfaceView.setPreserveEGLContextOnPause(true);
@@ -111,6 +145,7 @@ public class Activity extends AppCompatActivity implements GLSurfaceView.Rendere
 
     bot.Connect();
     tracker.Resume();
+    controlLoop.Start();
 
     surfaceView.onResume();
     displayRotationHelper.onResume();
@@ -119,6 +154,8 @@ public class Activity extends AppCompatActivity implements GLSurfaceView.Rendere
   @Override
   public void onPause() {
     super.onPause();
+    controlLoop.Stop();
+    bot.SendRaw(encodeMessage(0,0,0,0));
     if (tracker.IsActive()) {
       // Note that the order matters - GLSurfaceView is paused first so that it does not try
       // to query the session. If Session is paused before GLSurfaceView, GLSurfaceView may
@@ -222,22 +259,6 @@ public class Activity extends AppCompatActivity implements GLSurfaceView.Rendere
       tracker.Track();
       Frame frame = tracker.GetFrame();
 
-      // Print distance
-      runOnUiThread(
-      new Runnable() {
-        @Override
-        public void run() {
-            if(tracker.IsMoving() && tracker.IsTracking()){
-              String msg = generateRobotControl(tracker);
-              bot.SendRaw(msg);
-            } else {
-              bot.SendRaw(encodeMessage(0,0,0,0));
-            }
-            String log = String.format(Locale.ENGLISH,"%b \n%d \n%.2f \n%.2f", tracker.IsMoving(), tracker.GetAnchors().size(), tracker.GetNextScore(), tracker.AngleToNextAnchor());
-            mainText.setText(log);
-        }
-      });
-
       // Draw background.
       backgroundRenderer.draw(frame);
 
@@ -253,18 +274,58 @@ public class Activity extends AppCompatActivity implements GLSurfaceView.Rendere
     }
   }
 
-  private String generateRobotControl(Tracker t) {
+  // control runs on the control loop thread. It sends the next command to the robot and now and
+  // then prints the status.
+  private void control() {
+    TrackerState state = tracker.GetState();
+    if(state.IsMoving() && state.IsTracking()){
+      bot.SendRaw(generateRobotControl(state));
+      if (state.GetDetectionTime() != lastDetectionTime) {
+        lastDetectionTime = state.GetDetectionTime();
+        double latency = (System.nanoTime() - lastDetectionTime) / 1e6;
+        commandLatencyMs += (latency - commandLatencyMs) * 0.1;
+        maxCommandLatencyMs = Math.max(maxCommandLatencyMs, latency);
+      }
+    } else {
+      bot.SendRaw(encodeMessage(0,0,0,0));
+    }
+
+    controlTicks++;
+    if (controlTicks % statusDecimation == 0) {
+      statusText = String.format(Locale.ENGLISH,"%b \n%d \n%.2f \n%.2f", state.IsMoving(), state.GetAnchorCount(), state.GetNextScore(), state.GetAngleToNextAnchor());
+      runOnUiThread(showStatus);
+    }
+    if (controlTicks % jitterLogDecimation == 0) {
+      Log.i(TAG, controlLoop.FormatJitterHistogram());
+      Log.i(TAG, String.format(Locale.ENGLISH, "capture to command %.1f ms, max %.1f ms, pose stages %.1f %.1f %.1f ms",
+          commandLatencyMs, maxCommandLatencyMs, tracker.GetPoseLatency(PosePipeline.StagePrepare),
+          tracker.GetPoseLatency(PosePipeline.StageRun), tracker.GetPoseLatency(PosePipeline.StageDecode)));
+      maxCommandLatencyMs = 0;
+    }
+  }
+
+  private String generateRobotControl(TrackerState s) {
     // Format is csv
     // [L direction][L speed][R direction][R speed]
     // direction: 0 = stop, 1 = forward, 2 = backwards
     // speed: 0 to 255
-    if(t.GetAnchors().isEmpty()) {
-      return encodeMessage(0,0,0,0);
-    }
-    if(t.GetAnchors().size() == 1 && tracker.DistanceToNextAnchor() < .3) {
-      return encodeMessage(0,0,0,0);
+    double offAngle;
+    if (s.HasTarget() && s.GetAnchorCount() <= 1) {
+      // On the last leg steer toward where the person is predicted to be right now
+      long now = System.nanoTime();
+      if (s.GetDistanceToTarget(now) < .3) {
+        return encodeMessage(0,0,0,0);
+      }
+      offAngle = s.GetAngleToTarget(now);
+    } else {
+      if(s.GetAnchorCount() == 0) {
+        return encodeMessage(0,0,0,0);
+      }
+      if(s.GetAnchorCount() == 1 && s.GetDistanceToNextAnchor() < .3) {
+        return encodeMessage(0,0,0,0);
+      }
+      offAngle = s.GetAngleToNextAnchor();
     }
-    double offAngle = tracker.AngleToNextAnchor();
     if(Math.abs(offAngle) > 10){
       int speed = (int) Math.abs(offAngle) + 60;
       if (speed > 150) {
@@ -313,13 +374,16 @@ public class Activity extends AppCompatActivity implements GLSurfaceView.Rendere
 
     // Visualize anchors created by touch.
     float scaleFactor = 1.0f;
-    for (ColoredAnchor coloredAnchor : tracker.GetAnchors()) {
+    int anchorCount = tracker.GetAnchors(anchors);
+    for (int i = 0; i < anchorCount; i++) {
+      ColoredAnchor coloredAnchor = anchors[i];
       if (coloredAnchor.anchor.getTrackingState() != TrackingState.TRACKING) {
         continue;
       }
-      // Get the current pose of an Anchor in world space. The Anchor pose is updated
-      // during calls to session.update() as ARCore refines its estimate of the world.
-      coloredAnchor.anchor.getPose().toMatrix(anchorMatrix, 0);
+      // Get the current pose of the waypoint in world space. It follows its reference Anchor,
+      // which is updated during calls to session.update() as ARCore refines its estimate of the
+      // world.
+      coloredAnchor.GetPose().toMatrix(anchorMatrix, 0);
 
       // Update and draw the model and its shadow.
       virtualObject.updateModelMatrix(anchorMatrix, scaleFactor);
@@ -0,0 +1,136 @@
+package com.edmundfung.common.controller;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// ControlLoop runs a task at a fixed rate on its own thread. Ticks are scheduled from the start
+// of the loop, not from the end of the previous tick, so slow ticks do not add up. How late each
+// tick starts is kept as a histogram of one millisecond buckets.
+public class ControlLoop {
+    private static final String TAG = ControlLoop.class.getSimpleName();
+    // the last bucket counts every tick that was at least this many milliseconds late
+    public static final int JitterBuckets = 16;
+
+    private final String name;
+    private final Runnable task;
+    private volatile long period;
+    private final AtomicLongArray jitter = new AtomicLongArray(JitterBuckets);
+    private volatile long skippedTicks = 0;
+    private Thread thread;
+
+    // ControlLoop calls task rate times a second once started
+    public ControlLoop(String name, int rate, Runnable task) throws IllegalArgumentException {
+        this.name = name;
+        this.task = task;
+        SetRate(rate);
+    }
+
+    public void SetRate(int rate) throws IllegalArgumentException {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Control rate must be positive, got " + rate);
+        }
+        period = 1000000000L / rate;
+    }
+
+    public int GetRate() {
+        return (int) (1000000000L / period);
+    }
+
+    public synchronized void Start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, name);
+        thread.start();
+    }
+
+    public synchronized void Stop() {
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    // GetJitterHistogram copies the tick counts per millisecond of lateness into counts, which
+    // must hold JitterBuckets values
+    public void GetJitterHistogram(long[] counts) {
+        for (int i = 0; i < JitterBuckets; i++) {
+            counts[i] = jitter.get(i);
+        }
+    }
+
+    // GetSkippedTicks returns how many ticks were left out because the loop fell a whole period
+    // behind
+    public long GetSkippedTicks() {
+        return skippedTicks;
+    }
+
+    // FormatJitterHistogram lists the non empty buckets as "ms:count", e.g. "0:1200 1:31 15+:2"
+    public String FormatJitterHistogram() {
+        StringBuilder b = new StringBuilder(name).append(" jitter ms");
+        for (int i = 0; i < JitterBuckets; i++) {
+            long count = jitter.get(i);
+            if (count == 0) {
+                continue;
+            }
+            b.append(' ').append(i);
+            if (i == JitterBuckets - 1) {
+                b.append('+');
+            }
+            b.append(':').append(count);
+        }
+        b.append(String.format(Locale.ENGLISH, " skipped:%d", skippedTicks));
+        return b.toString();
+    }
+
+    private void loop() {
+        // Run ahead of the app's normal threads so ticks start on time
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+        long next = System.nanoTime();
+        while (true) {
+            long now = System.nanoTime();
+            while (now < next) {
+                LockSupport.parkNanos(this, next - now);
+                if (Thread.interrupted()) {
+                    return;
+                }
+                now = System.nanoTime();
+            }
+            int bucket = (int) Math.min((now - next) / 1000000, JitterBuckets - 1);
+            jitter.incrementAndGet(bucket);
+
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Control tick failed", e);
+            }
+            if (Thread.interrupted()) {
+                return;
+            }
+
+            // Skip ticks instead of bursting to catch up after falling a whole period behind
+            next += period;
+            long behind = System.nanoTime() - next;
+            if (behind > period) {
+                long skip = behind / period;
+                skippedTicks += skip;
+                next += skip * period;
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.edmundfung.common.vision;
+
+// AnchorQueue is the fixed size ring of waypoints the robot follows, oldest first. Only one
+// thread may change it. Other threads read it without locks through Snapshot, which copies the
+// waypoints into an array the caller keeps, so nothing is allocated while iterating.
+public class AnchorQueue {
+    private final ColoredAnchor[] anchors;
+    // head counts removed anchors and tail added ones. Both only ever grow, so a reader can tell
+    // when the writer moved on while it was copying.
+    private volatile long head = 0;
+    private volatile long tail = 0;
+
+    public AnchorQueue(int capacity) {
+        anchors = new ColoredAnchor[capacity];
+    }
+
+    public int Capacity() {
+        return anchors.length;
+    }
+
+    public int Size() {
+        long h = head;
+        return (int) (tail - h);
+    }
+
+    public boolean IsEmpty() {
+        return Size() == 0;
+    }
+
+    public boolean IsFull() {
+        return Size() >= anchors.length;
+    }
+
+    // Peek returns the oldest anchor, the next waypoint, or null when empty. Writer only.
+    public ColoredAnchor Peek() {
+        return IsEmpty() ? null : anchors[(int) (head % anchors.length)];
+    }
+
+    // PeekLast returns the newest anchor or null when empty. Writer only.
+    public ColoredAnchor PeekLast() {
+        return IsEmpty() ? null : anchors[(int) ((tail - 1) % anchors.length)];
+    }
+
+    // Get returns the i-th anchor from the oldest. Writer only.
+    public ColoredAnchor Get(int i) {
+        return anchors[(int) ((head + i) % anchors.length)];
+    }
+
+    // Add appends an anchor and returns false when the queue is full
+    public boolean Add(ColoredAnchor anchor) {
+        if (IsFull()) {
+            return false;
+        }
+        anchors[(int) (tail % anchors.length)] = anchor;
+        tail = tail + 1;
+        return true;
+    }
+
+    // Poll removes the oldest anchor and returns it, or null when empty
+    public ColoredAnchor Poll() {
+        if (IsEmpty()) {
+            return null;
+        }
+        int i = (int) (head % anchors.length);
+        ColoredAnchor anchor = anchors[i];
+        head = head + 1;
+        anchors[i] = null;
+        return anchor;
+    }
+
+    public void Clear() {
+        while (Poll() != null) {
+            // drop them all
+        }
+    }
+
+    // Snapshot copies the anchors, oldest first, into out and returns how many there are. out
+    // must hold Capacity anchors. Any thread may call it.
+    public int Snapshot(ColoredAnchor[] out) {
+        while (true) {
+            long h = head;
+            long t = tail;
+            int count = (int) (t - h);
+            if (count > anchors.length) {
+                // head moved after it was read
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                out[i] = anchors[(int) ((h + i) % anchors.length)];
+            }
+            // A slot is only reused or cleared after head moved past it
+            if (head == h) {
+                return count;
+            }
+        }
+    }
+}
@@ -4,12 +4,19 @@ public class Blob implements Comparable<Blob> {
     private int width;
     private int height;
     int area = 0;
-    private int wSum = 0;
-    private int hSum = 0;
-    private int minWidth = 99999;
-    private int minHeight = 99999;
-    private int maxWidth = 0;
-    private int maxHeight = 0;
+    // raw moments of the points: sums of w, h, w*w, h*h and w*h. area is the zeroth one.
+    private long wSum = 0;
+    private long hSum = 0;
+    private long wwSum = 0;
+    private long hhSum = 0;
+    private long whSum = 0;
+    private int minWidth = Integer.MAX_VALUE;
+    private int minHeight = Integer.MAX_VALUE;
+    private int maxWidth = Integer.MIN_VALUE;
+    private int maxHeight = Integer.MIN_VALUE;
+    // the score only changes when points are added, so it is kept once the blob is finished
+    private boolean finished = false;
+    private float score;
 
     public Blob(int w, int h) {
         width = w;
@@ -19,49 +26,116 @@ public class Blob implements Comparable<Blob> {
     // AddPoint adds a point to the Blob
     public void AddPoint(int w, int h) {
         area++;
-        wSum +=w;
-        hSum +=h;
+        wSum += w;
+        hSum += h;
+        wwSum += (long) w * w;
+        hhSum += (long) h * h;
+        whSum += (long) w * h;
+        minWidth = Math.min(minWidth, w);
+        maxWidth = Math.max(maxWidth, w);
+        minHeight = Math.min(minHeight, h);
+        maxHeight = Math.max(maxHeight, h);
+        finished = false;
     }
 
     public void AddPoint(Point p) {
         AddPoint(p.width, p.height);
     }
 
+    // AddPoints adds count points with the given moments that lie within minW to maxW and minH
+    // to maxH
+    void AddPoints(int count, long wSum, long hSum, long wwSum, long hhSum, long whSum,
+                   int minW, int minH, int maxW, int maxH) {
+        area += count;
+        this.wSum += wSum;
+        this.hSum += hSum;
+        this.wwSum += wwSum;
+        this.hhSum += hhSum;
+        this.whSum += whSum;
+        minWidth = Math.min(minWidth, minW);
+        maxWidth = Math.max(maxWidth, maxW);
+        minHeight = Math.min(minHeight, minH);
+        maxHeight = Math.max(maxHeight, maxH);
+        finished = false;
+    }
+
+    // Finish computes the score once no more points will be added
+    public void Finish() {
+        score = computeScore();
+        finished = true;
+    }
+
     // GetCenter returns the center of the blob where the index 0 is the w or x axis and index 1
     // is the h or y axis.
     public int[] GetCenter() {
-        return new int[]{(int) wSum /area, (int) hSum /area};
+        return new int[]{(int) (wSum / area), (int) (hSum / area)};
+    }
+
+    // GetBounds returns the smallest and largest w and h of the points as minW, minH, maxW, maxH
+    public int[] GetBounds() {
+        return new int[]{minWidth, minHeight, maxWidth, maxHeight};
     }
 
     public float GetDensity() {
-        float totalArea = (maxWidth - minWidth) * (maxHeight - minHeight);
+        float totalArea = (float) (maxWidth - minWidth + 1) * (maxHeight - minHeight + 1);
         return (float) area / totalArea;
     }
 
     public float GetRoundness() {
-        float r = (float) (maxWidth - minWidth) / (float) (maxHeight - minHeight);
+        float r = (float) (maxWidth - minWidth + 1) / (float) (maxHeight - minHeight + 1);
         if (r > 1) {
             r = 1/r;
         }
         return r;
     }
 
+    // GetOrientation returns the angle in radians from the w axis toward the h axis of the long
+    // axis of the blob
+    public double GetOrientation() {
+        double[] c = centralMoments();
+        return 0.5 * Math.atan2(2 * c[2], c[0] - c[1]);
+    }
+
+    // GetEccentricity returns 0 for a round blob up to almost 1 for a long thin one, from the
+    // spread of the points along the long and the short axis
+    public double GetEccentricity() {
+        double[] c = centralMoments();
+        double mean = (c[0] + c[1]) / 2;
+        double spread = Math.sqrt(c[2] * c[2] + (c[0] - c[1]) * (c[0] - c[1]) / 4);
+        double longAxis = mean + spread;
+        double shortAxis = Math.max(mean - spread, 0);
+        if (longAxis <= 0) {
+            return 0;
+        }
+        return Math.sqrt(1 - shortAxis / longAxis);
+    }
+
     public float GetScore() {
-        int[] c = GetCenter();
-        float wCenter = 1 - (float) Math.abs(c[0] - width/2) / (width/2);
-        float hCenter = 1 - (float) Math.abs(c[1] - height/2) / (height/2);
+        return finished ? score : computeScore();
+    }
+
+    private float computeScore() {
+        int cw = (int) (wSum / area);
+        int ch = (int) (hSum / area);
+        float wCenter = 1 - (float) Math.abs(cw - width/2) / (width/2);
+        float hCenter = 1 - (float) Math.abs(ch - height/2) / (height/2);
         return GetDensity() * 0.1f + GetRoundness() * 0.7f + wCenter * 0.1f + hCenter * 0.1f;
     }
 
+    // centralMoments returns the variances of w and h and their covariance
+    private double[] centralMoments() {
+        double cw = (double) wSum / area;
+        double ch = (double) hSum / area;
+        return new double[]{
+                (double) wwSum / area - cw * cw,
+                (double) hhSum / area - ch * ch,
+                (double) whSum / area - cw * ch,
+        };
+    }
+
     @Override
     public int compareTo(Blob b) {
-        if (GetScore() > b.GetScore()) {
-            return 1;
-        }
-        if (GetScore() < b.GetScore()) {
-            return -1;
-        }
-        return 0;
+        return Float.compare(GetScore(), b.GetScore());
     }
 
 }
@@ -11,19 +11,28 @@ import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class BlobFinder {
     private int width;
     private int height;
-    private int stride;
-    private int pixelStride;
     private byte[] inputPixelsV = new byte[0]; // Reuse java byte array to avoid multiple allocations.
     private byte[] inputPixelsU = new byte[0]; // Reuse java byte array to avoid multiple allocations.
-
-    private static final int encodingBlockSize = 2; // encoding uses a 2x2 block size
+    // chroma classifies and labels the copied planes
+    private final ChromaBlobFinder chroma = new ChromaBlobFinder();
 
     // BlobFinder can find unique features in the image and return their positions
     public BlobFinder(Frame frame) throws NotYetAvailableException, IllegalArgumentException {
+        Update(frame);
+    }
+
+    // BlobFinder without a frame is meant to be reused, see Update
+    public BlobFinder() {
+    }
+
+    // Update copies the image of frame to look for blobs in. Reusing one BlobFinder for every
+    // frame keeps its buffers.
+    public void Update(Frame frame) throws NotYetAvailableException, IllegalArgumentException {
         Image image = frame.acquireCameraImage();
         if (image.getFormat() != ImageFormat.YUV_420_888) {
             throw new IllegalArgumentException(
@@ -33,8 +42,8 @@ public class BlobFinder {
         width = image.getWidth();
         height = image.getHeight();
         // we only care about the V plane for the red color
-        stride = image.getPlanes()[2].getRowStride();
-        pixelStride = image.getPlanes()[2].getPixelStride();
+        int stride = image.getPlanes()[2].getRowStride();
+        int pixelStride = image.getPlanes()[2].getPixelStride();
         ByteBuffer inputV = image.getPlanes()[2].getBuffer();
         if (inputV.capacity() != inputPixelsV.length) {
             inputPixelsV = new byte[inputV.capacity()];
@@ -47,32 +56,33 @@ public class BlobFinder {
         }
         inputU.position(0);
         inputU.get(inputPixelsU);
+        chroma.SetPlanes(inputPixelsU, inputPixelsV, width, height, stride, pixelStride);
 
         image.close();
     }
 
-    // Returns a list of Blobs where there are a significant amount of connected red pixels
+    // SetColors sets the colors to look for, target 0 of ColorTable.Red by default
+    public void SetColors(ColorTable table) {
+        chroma.SetColors(table);
+    }
+
+    // SetParallelism makes Find split the image into count stripes of rows and work on them at the
+    // same time on pool. It finds the same blobs as without. A null pool works on the calling
+    // thread.
+    public void SetParallelism(ForkJoinPool pool, int count) {
+        chroma.SetParallelism(pool, count);
+    }
+
+    // Returns a list of Blobs where there are a significant amount of connected pixels of the
+    // color of target 0
     public List<Blob> Find() {
-        BlobLocator bl = new BlobLocator(width, height, stride);
-        // Go through all pixels in the V space and map to pixel space
-        int inputEnd = inputPixelsV.length - (stride/encodingBlockSize) - 1;
-
-        // Starting not at 0 to stay within bounds during marking since we mark a larger area for
-        // smoothing
-        int j = 2*stride;
-        for (int i = 2*stride; i < inputEnd; i+=pixelStride){
-            // U has "0xFF" at 0x7F and "0x00" at 0x80 so it makes the partitioning statement tricky
-            boolean uSpace = (inputPixelsU[i] > (byte) 0x6A && inputPixelsU[i] < (byte) 0x7F) || (inputPixelsU[i] > (byte) 0x80 && inputPixelsU[i] < (byte) 0x9A);
-            boolean vSpace = inputPixelsV[i] > (byte) 0xA0 && inputPixelsV[i] < (byte) 0xD0;
-            if (j >= 2 && uSpace && vSpace){
-                bl.Mark(j);
-            }
-            j+=encodingBlockSize;
-            if (j % stride == 0) {
-                j+=stride;
-            }
-        }
-        return bl.GetBlobs();
+        return FindAll().get(0);
+    }
+
+    // FindAll returns the blobs of every target of the colors in a single pass over the image,
+    // indexed by target
+    public List<List<Blob>> FindAll() {
+        return chroma.FindAll();
     }
 
     private static final float screenY = 1920;
@@ -1,109 +1,434 @@
 package com.edmundfung.common.vision;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class BlobLocator {
     private int width;
     private int height;
     private int stride;
-    private boolean[] markedCache;
+    // mask is the binary image, one bit per point. A row is words longs, point w of row h is bit
+    // w % 64 of mask[h * words + w / 64]. Mark only sets the points it is given, GetBlobs grows
+    // them into the encoding blocks.
+    private int words;
+    private long[] mask;
+    // bits of the last word of a row that are past stride
+    private long tailMask;
+
+    // labels holds the provisional label of every pixel, row by row, and 0 for unmarked ones
+    private int[] labels;
+    // parent is the union-find over provisional labels. The root of a set is always its smallest
+    // label.
+    private int[] parent;
+    // statistics by label while measuring and by blob index after resolving
+    private int[] areas;
+    private long[] wSums;
+    private long[] hSums;
+    private long[] wwSums;
+    private long[] hhSums;
+    private long[] whSums;
+    private int[] minWs;
+    private int[] minHs;
+    private int[] maxWs;
+    private int[] maxHs;
+    // first is the column-major index of the first pixel of a blob, the order blobs are returned in
+    private int[] first;
+    private long[] order;
+
+    // The image is cut into stripes of rows that are dilated, labeled and measured on their own,
+    // on the pool when there is one. Their labels are joined across the seams afterwards, so the
+    // blobs are the same however many stripes there are.
+    private ForkJoinPool pool;
+    private Stripe[] stripes;
 
     private static final int areaThreshold = 100; // encoding uses a 2x2 block size
 
+    // Stripe is rows top to bottom - 1 and the labels from firstLabel on
+    private final class Stripe extends RecursiveAction {
+        final int top;
+        final int bottom;
+        final int firstLabel;
+        int nextLabel;
+        // the row above the one being dilated, as it was before dilating
+        long[] above = new long[words];
+        long[] current = new long[words];
+        // the two rows below the stripe as they were before dilating
+        final long[] below = new long[2 * words];
+
+        Stripe(int top, int bottom, int firstLabel) {
+            this.top = top;
+            this.bottom = bottom;
+            this.firstLabel = firstLabel;
+        }
+
+        // save copies the rows next to the stripe before any stripe dilates its own
+        void save() {
+            if (top > 0) {
+                System.arraycopy(mask, (top - 1) * words, above, 0, words);
+            } else {
+                Arrays.fill(above, 0);
+            }
+            int rows = Math.min(height - bottom, 2);
+            System.arraycopy(mask, bottom * words, below, 0, rows * words);
+        }
+
+        @Override
+        protected void compute() {
+            dilate(this);
+            label(this);
+            measure(this);
+            Arrays.fill(mask, top * words, bottom * words, 0);
+        }
+    }
+
     // BlobLocator takes all the valid points in a binary image and generates Blob objects for them
     public BlobLocator(int w, int h, int s) {
         width = w;
         height = h;
         stride = s;
-        markedCache = new boolean[h*s];
+        words = (s + 63) / 64;
+        mask = new long[h * words];
+        tailMask = s % 64 == 0 ? -1L : (1L << (s % 64)) - 1;
+        labels = new int[w*h];
+        SetParallelism(null, 1);
+    }
+
+    // SetParallelism makes GetBlobs work on count stripes of rows at the same time on pool. A null
+    // pool or a single stripe works on the calling thread.
+    public void SetParallelism(ForkJoinPool pool, int count) {
+        this.pool = pool;
+        count = Math.max(1, Math.min(count, height));
+        stripes = new Stripe[count];
+        int rows = (height + count - 1) / count;
+        int nextLabel = 1;
+        for (int i = 0; i < count; i++) {
+            int top = Math.min(i * rows, height);
+            int bottom = Math.min(top + rows, height);
+            stripes[i] = new Stripe(top, bottom, nextLabel);
+            // With 8-connectivity a new label needs an unmarked pixel to its left and above it,
+            // so there are at most a quarter as many labels as pixels
+            nextLabel += ((width + 1) / 2) * ((bottom - top + 1) / 2);
+        }
+        parent = new int[nextLabel];
+        areas = new int[nextLabel];
+        wSums = new long[nextLabel];
+        hSums = new long[nextLabel];
+        wwSums = new long[nextLabel];
+        hhSums = new long[nextLabel];
+        whSums = new long[nextLabel];
+        minWs = new int[nextLabel];
+        minHs = new int[nextLabel];
+        maxWs = new int[nextLabel];
+        maxHs = new int[nextLabel];
+        first = new int[nextLabel];
+        order = new long[nextLabel];
+    }
+
+    // Fits returns true when the locator is for images of the given size
+    public boolean Fits(int w, int h, int s) {
+        return width == w && height == h && stride == s;
     }
 
-    // Mark marks 2x2 encoding block in the binary image based on single linear index
+    // Mark marks 2x2 encoding block in the binary image based on single linear index. Points
+    // outside the image are left out. Different threads may mark different rows at the same time.
     public void Mark(int j) {
-        try {
-            markedCache[j] = true;
-            markedCache[j + 1] = true;
-            markedCache[j + stride] = true;
-            markedCache[j + stride + 1] = true;
-
-            // Additional none true pixel marker for smoothing
-            markedCache[j+stride-1] = true;
-            markedCache[j-1] = true;
-            markedCache[j-stride] = true;
-            markedCache[j-stride+1] = true;
-            markedCache[j-stride-1] = true;
-            markedCache[j-stride-2] = true;
-            markedCache[j-2*stride-1] = true;
-            markedCache[j-2*stride-2] = true;
-        } catch (ArrayIndexOutOfBoundsException e) {
-            // ignore...
-        }
-    }
-
-    // GetBlobs will use the markedCache to find blobs. The markCache WILL BE DESTROYED!
+        if (j < 0 || j >= height * stride) {
+            return;
+        }
+        int h = j / stride;
+        int w = j - h * stride;
+        mask[h * words + (w >> 6)] |= 1L << w;
+    }
+
+    // GetBlobs finds the 8-connected blobs of marked points with two passes over the binary image:
+    // the first labels every point and records which labels touch, the second adds up the points
+    // of every label. The marks are cleared for the next image.
     public List<Blob> GetBlobs() {
-        List<Blob> blobs = new ArrayList<Blob>();
-
-        // Stores the next points which are attached to current point. When this queue is empty,
-        // that means that there are no more adjacent marked points and this blob is markedCache.
-        Queue<Point> queue = new LinkedList<Point>();
-
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                if (checkPoint(i,j)) {
-                    Blob b = new Blob(width, height);
-
-                    Point p = new Point(i,j,stride);
-                    queue.add(p);
-                    markedCache[p.GetPosition()] = false;
-                    b.AddPoint(i,j);
-
-                    while (queue.peek() != null) {
-                        p = queue.remove();
-
-                        // All the points we need to check whether we have a connected blob points
-                        Point[] pointsToCheck = new Point[]{
-                                new Point(p.width - 1,p.height - 1,stride),
-                                new Point(p.width,p.height - 1,stride),
-                                new Point(p.width + 1,p.height - 1,stride),
-                                new Point(p.width - 1,p.height,stride),
-                                new Point(p.width + 1,p.height,stride),
-                                new Point(p.width - 1,p.height + 1,stride),
-                                new Point(p.width,p.height + 1,stride),
-                                new Point(p.width + 1,p.height + 1,stride),
-                        };
-                        // Actually check the points to see if they are marked. If so add to queue
-                        // to check around that point too
-                        for (int ptc = 0; ptc < pointsToCheck.length ; ptc++) {
-                            if (checkPoint(pointsToCheck[ptc])) {
-                                queue.add(pointsToCheck[ptc]);
-                                markedCache[pointsToCheck[ptc].GetPosition()] = false;
-                                b.AddPoint(pointsToCheck[ptc]);
-                            }
-                        }
-                    }
-
-                    // Only if the Blob is big enough, then we consider it
-                    if (b.area > areaThreshold) {
-                        blobs.add(b);
-                    }
-                }
+        for (Stripe stripe : stripes) {
+            stripe.save();
+        }
+        if (pool == null || stripes.length == 1) {
+            for (Stripe stripe : stripes) {
+                stripe.compute();
+            }
+        } else {
+            for (Stripe stripe : stripes) {
+                stripe.reinitialize();
+                pool.execute(stripe);
+            }
+            for (Stripe stripe : stripes) {
+                stripe.join();
+            }
+        }
+        joinSeams();
+        int blobCount = resolve();
+
+        // Blobs come in the order a column by column scan would find them
+        int n = 0;
+        for (int b = 0; b < blobCount; b++) {
+            // Only if the Blob is big enough, then we consider it
+            if (areas[b] > areaThreshold) {
+                order[n++] = ((long) first[b] << 32) | b;
             }
         }
+        Arrays.sort(order, 0, n);
+        List<Blob> blobs = new ArrayList<Blob>(n);
+        for (int i = 0; i < n; i++) {
+            int b = (int) order[i];
+            Blob blob = new Blob(width, height);
+            blob.AddPoints(areas[b], wSums[b], hSums[b], wwSums[b], hhSums[b], whSums[b],
+                    minWs[b], minHs[b], maxWs[b], maxHs[b]);
+            blob.Finish();
+            blobs.add(blob);
+        }
         return blobs;
     }
 
-    // checkPoint performs boundary checks and whether or not this coordinate is marked
-    private boolean checkPoint(int w, int h) {
-        if (h >= 0 && w >= 0 && h < height && w < width && markedCache[h * stride + w]) {
-            return true;
+    // dilate grows every marked point of a stripe into its 2x2 encoding block plus the points
+    // around it that smooth the blob, 64 points at a time. Relative to a marked point, rows and
+    // columns, that is:
+    //   row -2: -2 -1
+    //   row -1: -2 -1  0 +1
+    //   row  0:    -1  0 +1
+    //   row +1:    -1  0 +1
+    // Points that would fall outside the image are left out.
+    private void dilate(Stripe s) {
+        for (int h = s.top; h < s.bottom; h++) {
+            int row = h * words;
+            System.arraycopy(mask, row, s.current, 0, words);
+            for (int i = 0; i < words; i++) {
+                // marks on this row and the one above spread -1 to +1 columns
+                long bits = spread(s.current, 0, i) | spread(s.above, 0, i);
+                if (h + 1 < height) {
+                    // marks on the row below spread -2 to +1 columns
+                    long[] src = h + 1 < s.bottom ? mask : s.below;
+                    int below = h + 1 < s.bottom ? row + words : 0;
+                    bits |= spread(src, below, i) | shiftDown(src, below, i, 2);
+                }
+                if (h + 2 < height) {
+                    // marks two rows below spread -2 to -1 columns
+                    long[] src = h + 2 < s.bottom ? mask : s.below;
+                    int below = h + 2 < s.bottom ? row + 2 * words : (h + 2 - s.bottom) * words;
+                    bits |= shiftDown(src, below, i, 1) | shiftDown(src, below, i, 2);
+                }
+                mask[row + i] = bits;
+            }
+            mask[row + words - 1] &= tailMask;
+            long[] swap = s.above;
+            s.above = s.current;
+            s.current = swap;
+        }
+    }
+
+    // spread returns word i of a row with every bit also set one column before and after it
+    private long spread(long[] bits, int row, int i) {
+        return bits[row + i] | shiftUp(bits, row, i) | shiftDown(bits, row, i, 1);
+    }
+
+    // shiftUp returns word i of a row moved one column to the right, column w going to w + 1
+    private long shiftUp(long[] bits, int row, int i) {
+        long word = bits[row + i] << 1;
+        if (i > 0) {
+            word |= bits[row + i - 1] >>> 63;
+        }
+        return word;
+    }
+
+    // shiftDown returns word i of a row moved n columns to the left, column w going to w - n
+    private long shiftDown(long[] bits, int row, int i, int n) {
+        long word = bits[row + i] >>> n;
+        if (i + 1 < words) {
+            word |= bits[row + i + 1] << (64 - n);
+        }
+        return word;
+    }
+
+    // label gives every marked point of a stripe the label of a marked neighbor to its left or
+    // above it within the stripe, or a new one, and joins the labels of those neighbors
+    private void label(Stripe s) {
+        int next = s.firstLabel;
+        for (int h = s.top; h < s.bottom; h++) {
+            int row = h * words;
+            int labelRow = h * width;
+            for (int w = 0; w < width; w++) {
+                long word = mask[row + (w >> 6)];
+                if (word == 0) {
+                    // nothing marked in these 64 points
+                    int end = Math.min((w | 63) + 1, width);
+                    Arrays.fill(labels, labelRow + w, labelRow + end, 0);
+                    w = end - 1;
+                    continue;
+                }
+                if ((word & (1L << w)) == 0) {
+                    labels[labelRow + w] = 0;
+                    continue;
+                }
+                int l = w > 0 ? labels[labelRow + w - 1] : 0;
+                if (h > s.top) {
+                    l = joinAbove(l, labelRow - width, w);
+                }
+                if (l == 0) {
+                    l = next++;
+                    parent[l] = l;
+                    clear(l);
+                }
+                labels[labelRow + w] = l;
+            }
+        }
+        s.nextLabel = next;
+    }
+
+    // joinSeams joins the labels of every first row of a stripe with the ones above it
+    private void joinSeams() {
+        for (int i = 1; i < stripes.length; i++) {
+            if (stripes[i].top == stripes[i].bottom) {
+                // rows ran out before the stripes did
+                continue;
+            }
+            int labelRow = stripes[i].top * width;
+            for (int w = 0; w < width; w++) {
+                int l = labels[labelRow + w];
+                if (l != 0) {
+                    joinAbove(l, labelRow - width, w);
+                }
+            }
+        }
+    }
+
+    // joinAbove joins label l with the labels of the three points above w on the row starting at
+    // up and returns one of them
+    private int joinAbove(int l, int up, int w) {
+        if (w > 0) {
+            l = join(l, labels[up + w - 1]);
+        }
+        l = join(l, labels[up + w]);
+        if (w + 1 < width) {
+            l = join(l, labels[up + w + 1]);
+        }
+        return l;
+    }
+
+    // clear resets the statistics of label l
+    private void clear(int l) {
+        areas[l] = 0;
+        wSums[l] = 0;
+        hSums[l] = 0;
+        wwSums[l] = 0;
+        hhSums[l] = 0;
+        whSums[l] = 0;
+        minWs[l] = Integer.MAX_VALUE;
+        minHs[l] = Integer.MAX_VALUE;
+        maxWs[l] = Integer.MIN_VALUE;
+        maxHs[l] = Integer.MIN_VALUE;
+        first[l] = Integer.MAX_VALUE;
+    }
+
+    // measure adds up the moments and bounds of the points of every label of a stripe
+    private void measure(Stripe s) {
+        for (int h = s.top; h < s.bottom; h++) {
+            int labelRow = h * width;
+            for (int w = 0; w < width; w++) {
+                int l = labels[labelRow + w];
+                if (l == 0) {
+                    continue;
+                }
+                areas[l]++;
+                wSums[l] += w;
+                hSums[l] += h;
+                wwSums[l] += w * w;
+                hhSums[l] += h * h;
+                whSums[l] += w * h;
+                minWs[l] = Math.min(minWs[l], w);
+                maxWs[l] = Math.max(maxWs[l], w);
+                // rows come in order, so the first row of a label is its top
+                if (minHs[l] == Integer.MAX_VALUE) {
+                    minHs[l] = h;
+                }
+                maxHs[l] = h;
+                first[l] = Math.min(first[l], w * height + h);
+            }
+        }
+    }
+
+    // resolve turns parent into the blob index of every label, moves the statistics of every
+    // label to its blob and returns how many blobs there are. A blob index is always smaller
+    // than the labels still to come, so no statistics are overwritten before they are used.
+    private int resolve() {
+        int blobCount = 0;
+        for (Stripe s : stripes) {
+            for (int l = s.firstLabel; l < s.nextLabel; l++) {
+                // the parent of a label is smaller, so it already holds its blob index
+                if (parent[l] == l) {
+                    int b = blobCount++;
+                    parent[l] = b;
+                    move(l, b);
+                } else {
+                    int b = parent[parent[l]];
+                    parent[l] = b;
+                    add(l, b);
+                }
+            }
+        }
+        return blobCount;
+    }
+
+    // move puts the statistics of label l in place of blob b
+    private void move(int l, int b) {
+        areas[b] = areas[l];
+        wSums[b] = wSums[l];
+        hSums[b] = hSums[l];
+        wwSums[b] = wwSums[l];
+        hhSums[b] = hhSums[l];
+        whSums[b] = whSums[l];
+        minWs[b] = minWs[l];
+        minHs[b] = minHs[l];
+        maxWs[b] = maxWs[l];
+        maxHs[b] = maxHs[l];
+        first[b] = first[l];
+    }
+
+    // add adds the statistics of label l to blob b
+    private void add(int l, int b) {
+        areas[b] += areas[l];
+        wSums[b] += wSums[l];
+        hSums[b] += hSums[l];
+        wwSums[b] += wwSums[l];
+        hhSums[b] += hhSums[l];
+        whSums[b] += whSums[l];
+        minWs[b] = Math.min(minWs[b], minWs[l]);
+        minHs[b] = Math.min(minHs[b], minHs[l]);
+        maxWs[b] = Math.max(maxWs[b], maxWs[l]);
+        maxHs[b] = Math.max(maxHs[b], maxHs[l]);
+        first[b] = Math.min(first[b], first[l]);
+    }
+
+    // join merges the sets of labels a and b, where 0 is no label, and returns one of them
+    private int join(int a, int b) {
+        if (b == 0 || a == b) {
+            return a;
+        }
+        if (a == 0) {
+            return b;
+        }
+        int ra = find(a);
+        int rb = find(b);
+        if (ra < rb) {
+            parent[rb] = ra;
+        } else if (rb < ra) {
+            parent[ra] = rb;
         }
-        return false;
+        return ra < rb ? ra : rb;
     }
-    private boolean checkPoint(Point p) {
-        return checkPoint(p.width, p.height);
+
+    // find returns the root of label l, halving the path on the way
+    private int find(int l) {
+        while (parent[l] != l) {
+            parent[l] = parent[parent[l]];
+            l = parent[l];
+        }
+        return l;
     }
 }
@@ -0,0 +1,132 @@
+package com.edmundfung.common.vision;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// ChromaBlobFinder finds the blobs of the colors of a ColorTable in the U and V planes of a
+// YUV_420_888 image. It is the part of BlobFinder that needs no Android classes, so it can also
+// be fed synthetic planes.
+public class ChromaBlobFinder {
+    private int width;
+    private int height;
+    private int stride;
+    private int pixelStride;
+    private byte[] inputPixelsU = new byte[0];
+    private byte[] inputPixelsV = new byte[0];
+    private ColorTable colors = ColorTable.Red();
+    private BlobLocator[] locators = new BlobLocator[0]; // One per target, reused while the image size stays the same
+    // With a pool the image is classified and searched in stripes of rows at the same time
+    private ForkJoinPool pool;
+    private int stripeCount = 1;
+    private Classifier[] classifiers = new Classifier[0];
+
+    private static final int encodingBlockSize = 2; // encoding uses a 2x2 block size
+
+    // Classifier classifies steps from to to - 1 of the scan over the image, see classify
+    private final class Classifier extends RecursiveAction {
+        int from;
+        int to;
+
+        @Override
+        protected void compute() {
+            classify(from, to);
+        }
+    }
+
+    // SetPlanes sets the image to look for blobs in. u and v are the chroma planes of a width x
+    // height image, stride bytes a row and pixelStride bytes a sample. They are used as they are,
+    // not copied.
+    public void SetPlanes(byte[] u, byte[] v, int width, int height, int stride, int pixelStride) {
+        inputPixelsU = u;
+        inputPixelsV = v;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.pixelStride = pixelStride;
+    }
+
+    // SetColors sets the colors to look for, target 0 of ColorTable.Red by default
+    public void SetColors(ColorTable table) {
+        colors = table;
+    }
+
+    // SetParallelism makes FindAll split the image into count stripes of rows and work on them at
+    // the same time on pool. It finds the same blobs as without. A null pool works on the calling
+    // thread.
+    public void SetParallelism(ForkJoinPool pool, int count) {
+        this.pool = pool;
+        stripeCount = Math.max(count, 1);
+        classifiers = new Classifier[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            classifiers[i] = new Classifier();
+        }
+        for (BlobLocator bl : locators) {
+            if (bl != null) {
+                bl.SetParallelism(pool, stripeCount);
+            }
+        }
+    }
+
+    // FindAll returns the blobs of every target of the colors in a single pass over the image,
+    // indexed by target
+    public List<List<Blob>> FindAll() {
+        int targets = Math.max(colors.GetTargetCount(), 1);
+        if (locators.length != targets) {
+            locators = new BlobLocator[targets];
+        }
+        for (int t = 0; t < targets; t++) {
+            if (locators[t] == null || !locators[t].Fits(width, height, stride)) {
+                locators[t] = new BlobLocator(width, height, stride);
+                locators[t].SetParallelism(pool, stripeCount);
+            }
+        }
+        // Go through all pixels in the V space and map to pixel space
+        int inputEnd = inputPixelsV.length - (stride/encodingBlockSize) - 1;
+        int steps = Math.max(0, (inputEnd - 2*stride + pixelStride - 1) / pixelStride);
+        if (pool == null || stripeCount == 1 || stride % encodingBlockSize != 0) {
+            classify(0, steps);
+        } else {
+            // Every stride / encodingBlockSize steps mark one row, so stripes that start on such a
+            // step mark different rows
+            int rowSteps = stride / encodingBlockSize;
+            int chunk = ((steps + stripeCount - 1) / stripeCount + rowSteps - 1) / rowSteps * rowSteps;
+            for (int k = 0; k < stripeCount; k++) {
+                classifiers[k].from = Math.min(k * chunk, steps);
+                classifiers[k].to = Math.min(classifiers[k].from + chunk, steps);
+                classifiers[k].reinitialize();
+                pool.execute(classifiers[k]);
+            }
+            for (Classifier classifier : classifiers) {
+                classifier.join();
+            }
+        }
+        List<List<Blob>> blobs = new ArrayList<List<Blob>>(targets);
+        for (BlobLocator bl : locators) {
+            blobs.add(bl.GetBlobs());
+        }
+        return blobs;
+    }
+
+    // classify marks the pixels of the colors of a target for steps from to to - 1 of the scan.
+    // Step m reads chroma sample 2*stride + m*pixelStride and marks a 2x2 block at j.
+    private void classify(int from, int to) {
+        // Starting not at 0 to stay within bounds during marking since we mark a larger area for
+        // smoothing. j skips a row every stride / encodingBlockSize steps, a stripe can only start
+        // elsewhere than 0 when stride is a multiple of encodingBlockSize.
+        int p = 2*stride + encodingBlockSize*from;
+        int j = p + stride*(p/stride - 2);
+        int i = 2*stride + from*pixelStride;
+        for (int m = from; m < to; m++, i+=pixelStride){
+            int target = colors.Classify(inputPixelsU[i], inputPixelsV[i]);
+            if (j >= 2 && target != ColorTable.None){
+                locators[target].Mark(j);
+            }
+            j+=encodingBlockSize;
+            if (j % stride == 0) {
+                j+=stride;
+            }
+        }
+    }
+}
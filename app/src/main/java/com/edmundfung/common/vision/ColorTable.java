@@ -0,0 +1,59 @@
+package com.edmundfung.common.vision;
+
+// ColorTable classifies camera pixels by their chroma. Every (U, V) pair maps to the target it
+// belongs to, so classifying a pixel is one table load no matter how many targets or how
+// complicated their colors are. Targets are numbered from 0 and a color is a set of U and V
+// ranges, unsigned as in the camera image.
+public class ColorTable {
+    // None is what Classify returns for pixels of no target
+    public static final int None = -1;
+    // every target gets its own binary image, so keep them few
+    public static final int MaxTargets = 8;
+
+    // entries hold the target + 1 of every (U << 8 | V), 0 for none
+    private final byte[] entries = new byte[256 * 256];
+    private int targetCount = 0;
+
+    // Red is the red marker BlobFinder always looked for, as target 0. It skips U 127 and 128
+    // just like the signed byte checks it replaces did.
+    public static ColorTable Red() {
+        ColorTable table = new ColorTable();
+        table.Add(0, 107, 126, 161, 207);
+        table.Add(0, 129, 153, 161, 207);
+        return table;
+    }
+
+    // Add makes the colors with U in uMin to uMax and V in vMin to vMax, both inclusive, part of
+    // target. Later ranges win where they overlap.
+    public void Add(int target, int uMin, int uMax, int vMin, int vMax) throws IllegalArgumentException {
+        if (target < 0 || target >= MaxTargets) {
+            throw new IllegalArgumentException(String.format("Target must be 0 to %d, got %d", MaxTargets - 1, target));
+        }
+        if (uMin < 0 || uMax > 255 || vMin < 0 || vMax > 255) {
+            throw new IllegalArgumentException(String.format("Bad color range U %d-%d V %d-%d", uMin, uMax, vMin, vMax));
+        }
+        for (int u = uMin; u <= uMax; u++) {
+            for (int v = vMin; v <= vMax; v++) {
+                entries[u << 8 | v] = (byte) (target + 1);
+            }
+        }
+        targetCount = Math.max(targetCount, target + 1);
+    }
+
+    public void Clear() {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = 0;
+        }
+        targetCount = 0;
+    }
+
+    // GetTargetCount returns one more than the highest target added
+    public int GetTargetCount() {
+        return targetCount;
+    }
+
+    // Classify returns the target of the pixel with chroma u, v as read from the image, or None
+    public int Classify(byte u, byte v) {
+        return entries[(u & 0xFF) << 8 | (v & 0xFF)] - 1;
+    }
+}
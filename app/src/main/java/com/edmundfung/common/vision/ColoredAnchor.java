@@ -1,13 +1,20 @@
 package com.edmundfung.common.vision;
 
 import com.google.ar.core.Anchor;
+import com.google.ar.core.Pose;
 
 import java.util.Random;
 
 public class ColoredAnchor {
-    public final Anchor anchor;
+    // reference anchor the waypoint is stored relative to, it may be shared with other waypoints
+    public Anchor anchor;
+    // pose of the waypoint relative to anchor
+    public Pose local = Pose.IDENTITY;
     public final float[] color;
     public float score;
+    // average world position of the detections merged into this waypoint
+    public final float[] position = new float[3];
+    public int merges = 1;
 
     public ColoredAnchor(Anchor a, float s) {
         this.anchor = a;
@@ -20,6 +27,12 @@ public class ColoredAnchor {
         this.color = color4f;
     }
 
+    // GetPose returns the world pose of the waypoint, including the corrections ARCore made to
+    // its reference anchor since it was added
+    public Pose GetPose() {
+        return anchor.getPose().compose(local);
+    }
+
     private static final Random r = new Random();
     private static final float maxColorValue = 255.0f;
     private float randomColorFloat() {
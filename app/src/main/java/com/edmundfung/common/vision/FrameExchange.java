@@ -0,0 +1,70 @@
+package com.edmundfung.common.vision;
+
+import java.util.concurrent.locks.LockSupport;
+
+// FrameExchange hands FrameSnapshots from the GL thread to one reader thread through a
+// TripleBuffer, so the GL thread never waits or takes a lock. The reader always gets the newest
+// snapshot. Snapshots replaced before being taken are counted as dropped.
+public class FrameExchange {
+    private final TripleBuffer<FrameSnapshot> snapshots =
+            new TripleBuffer<>(new FrameSnapshot(), new FrameSnapshot(), new FrameSnapshot());
+
+    private volatile Thread reader;
+    private volatile boolean woken = false;
+    private volatile long published = 0;
+    private volatile long dropped = 0;
+
+    // Back returns the snapshot the writer may fill before calling Publish
+    public FrameSnapshot Back() {
+        return snapshots.Back();
+    }
+
+    // Publish makes the snapshot from Back the latest one
+    public void Publish() {
+        boolean replaced = snapshots.Publish();
+        // the writer is the only thread updating the counters
+        published++;
+        if (replaced) {
+            dropped++;
+        }
+        Thread r = reader;
+        if (r != null) {
+            LockSupport.unpark(r);
+        }
+    }
+
+    // Take waits for a snapshot newer than the last one taken and returns it. The snapshot stays
+    // untouched until the next Take. It returns null when Wake is called.
+    public FrameSnapshot Take() throws InterruptedException {
+        reader = Thread.currentThread();
+        FrameSnapshot snapshot;
+        while ((snapshot = snapshots.TakeFresh()) == null) {
+            if (woken) {
+                woken = false;
+                return null;
+            }
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return snapshot;
+    }
+    // Wake makes a waiting Take return null
+    public void Wake() {
+        woken = true;
+        Thread r = reader;
+        if (r != null) {
+            LockSupport.unpark(r);
+        }
+    }
+
+    public long GetPublishedFrames() {
+        return published;
+    }
+
+    // GetDroppedFrames returns how many snapshots were replaced by a newer one before being taken
+    public long GetDroppedFrames() {
+        return dropped;
+    }
+}
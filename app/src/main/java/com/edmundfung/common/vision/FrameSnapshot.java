@@ -0,0 +1,78 @@
+package com.edmundfung.common.vision;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import com.google.ar.core.Frame;
+import com.google.ar.core.exceptions.NotYetAvailableException;
+
+// FrameSnapshot is a copy of what the inference threads need from a Frame: the camera image, its
+// timestamp, the projection matrix and the display geometry. The camera pose stays on the GL
+// thread in a PoseHistory and is looked up by timestamp. A snapshot is filled on the GL thread and
+// not changed again until it has been handed back through a FrameExchange, so other threads can
+// read it without touching the Frame.
+public class FrameSnapshot {
+    // camera image planes, see YuvConverter.Convert
+    byte[] y = new byte[0];
+    byte[] u = new byte[0];
+    byte[] v = new byte[0];
+    int yRowStride;
+    int yPixelStride;
+    int uvRowStride;
+    int uvPixelStride;
+
+    // same clipping planes as the rendering
+    static final float near = 0.1f;
+    static final float far = 100.0f;
+
+    private long timestamp;
+    final float[] projection = new float[16];
+    private int displayRotation;
+    private int displayWidth;
+    private int displayHeight;
+
+    // Set copies the camera image and projection of frame. Only call it on the GL thread, right after
+    // the session update that returned frame.
+    public void Set(Frame frame, int rotation, int width, int height)
+            throws NotYetAvailableException, IllegalArgumentException {
+        Image image = frame.acquireCameraImage();
+        try {
+            if (image.getFormat() != ImageFormat.YUV_420_888) {
+                throw new IllegalArgumentException(
+                        "Expected image in YUV_420_888 format, got format " + image.getFormat());
+            }
+            Image.Plane[] planes = image.getPlanes();
+            y = YuvConverter.copyPlane(planes[0].getBuffer(), y);
+            u = YuvConverter.copyPlane(planes[1].getBuffer(), u);
+            v = YuvConverter.copyPlane(planes[2].getBuffer(), v);
+            yRowStride = planes[0].getRowStride();
+            yPixelStride = planes[0].getPixelStride();
+            uvRowStride = planes[1].getRowStride();
+            uvPixelStride = planes[1].getPixelStride();
+        } finally {
+            image.close();
+        }
+        timestamp = frame.getTimestamp();
+        frame.getCamera().getProjectionMatrix(projection, 0, near, far);
+        displayRotation = rotation;
+        displayWidth = width;
+        displayHeight = height;
+    }
+
+    // GetTimestamp returns Frame.getTimestamp of the frame the image came from
+    public long GetTimestamp() {
+        return timestamp;
+    }
+
+    public int GetDisplayRotation() {
+        return displayRotation;
+    }
+
+    public int GetDisplayWidth() {
+        return displayWidth;
+    }
+
+    public int GetDisplayHeight() {
+        return displayHeight;
+    }
+}
@@ -0,0 +1,80 @@
+package com.edmundfung.common.vision;
+
+// HitQueue carries hit test requests from the thread that finds people to the GL thread, which
+// is the only one allowed to call into ARCore. It is a fixed ring of reused requests with one
+// writer and one reader and no locks. Requests that do not fit are dropped and counted, and so
+// are requests whose ray is unknown.
+public class HitQueue {
+    // HitRequest is a camera space ray to hit test, taken from the camera image at timestamp
+    public static class HitRequest {
+        long timestamp;
+        // origin followed by the unit direction
+        final float[] ray = new float[6];
+
+        public long GetTimestamp() {
+            return timestamp;
+        }
+
+        public float[] GetRay() {
+            return ray;
+        }
+    }
+
+    private final HitRequest[] requests;
+    // head is only written by the reader and tail only by the writer
+    private volatile int head = 0;
+    private volatile int tail = 0;
+    // only written by the writer
+    private volatile long dropped = 0;
+    private volatile long rejected = 0;
+
+    public HitQueue(int capacity) {
+        // one slot stays empty to tell a full ring from an empty one
+        requests = new HitRequest[capacity + 1];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new HitRequest();
+        }
+    }
+
+    // Offer queues a hit test along the ray through display pixel x, y of the image of job. It
+    // returns false when the ray is unknown or the queue is full.
+    public boolean Offer(PoseJob job, float x, float y) {
+        int next = (tail + 1) % requests.length;
+        if (next == head) {
+            dropped++;
+            return false;
+        }
+        HitRequest request = requests[tail];
+        if (!job.GetCameraRay(x, y, request.ray)) {
+            rejected++;
+            return false;
+        }
+        request.timestamp = job.GetTimestamp();
+        tail = next;
+        return true;
+    }
+
+    // Peek returns the oldest request or null when there is none. It stays valid until Release.
+    public HitRequest Peek() {
+        if (head == tail) {
+            return null;
+        }
+        return requests[head];
+    }
+
+    // Release removes the request returned by Peek
+    public void Release() {
+        head = (head + 1) % requests.length;
+    }
+
+    // GetDropped returns how many requests did not fit in the queue
+    public long GetDropped() {
+        return dropped;
+    }
+
+    // GetRejected returns how many requests were not queued because the ray through their pixel
+    // was unknown
+    public long GetRejected() {
+        return rejected;
+    }
+}
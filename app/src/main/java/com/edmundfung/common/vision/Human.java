@@ -27,4 +27,19 @@ public class Human {
     public int parts_coords[][] = new int[18][2];
     public int coords_index_set[] = new int[18];
     public boolean coords_index_assigned[] = new boolean[18];
+    // parts_coords as a fraction of the full frame model input, no matter what region or input
+    // size was inferred on
+    public float frame_coords[][] = new float[18][2];
+
+    // Reset clears all parts so the Human can be reused
+    public void Reset() {
+        for (int i = 0; i < parts_coords.length; i++) {
+            parts_coords[i][0] = 0;
+            parts_coords[i][1] = 0;
+            coords_index_set[i] = 0;
+            coords_index_assigned[i] = false;
+            frame_coords[i][0] = 0;
+            frame_coords[i][1] = 0;
+        }
+    }
 }
\ No newline at end of file
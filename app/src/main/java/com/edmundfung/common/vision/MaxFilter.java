@@ -0,0 +1,71 @@
+package com.edmundfung.common.vision;
+
+// MaxFilter is a 1D running max over a centered window using the van Herk/Gil-Werman algorithm.
+// It costs about three comparisons per sample no matter how large the window is, so a 2D max
+// filter is two passes of this (rows then columns). Samples past the ends of the line are ignored.
+public class MaxFilter {
+    private final int size;
+    private final int radius;
+    private final float[] padded;
+    private final float[] prefix;
+    private final float[] suffix;
+
+    // MaxFilter handles lines of up to maxLength samples. size must be odd.
+    public MaxFilter(int size, int maxLength) throws IllegalArgumentException {
+        if (size < 1 || size % 2 == 0) {
+            throw new IllegalArgumentException("Filter size must be odd and positive, got " + size);
+        }
+        this.size = size;
+        radius = (size - 1) / 2;
+        int length = maxLength + 2 * radius;
+        padded = new float[length];
+        prefix = new float[length];
+        suffix = new float[length];
+    }
+
+    public int GetSize() {
+        return size;
+    }
+
+    // Filter writes the max of the window around each of the n samples of src (starting at
+    // srcOffset, srcStride apart) into dst (starting at dstOffset, dstStride apart)
+    public void Filter(float[] src, int srcOffset, int srcStride, int n,
+                       float[] dst, int dstOffset, int dstStride) {
+        int length = n + 2 * radius;
+        for (int i = 0; i < radius; i++) {
+            padded[i] = Float.NEGATIVE_INFINITY;
+            padded[length - 1 - i] = Float.NEGATIVE_INFINITY;
+        }
+        for (int i = 0, s = srcOffset; i < n; i++, s += srcStride) {
+            padded[radius + i] = src[s];
+        }
+
+        // prefix runs forward and suffix backward, both restarting at every block of size samples
+        for (int start = 0; start < length; start += size) {
+            int end = Math.min(start + size, length) - 1;
+            float max = padded[start];
+            prefix[start] = max;
+            for (int i = start + 1; i <= end; i++) {
+                if (padded[i] > max) {
+                    max = padded[i];
+                }
+                prefix[i] = max;
+            }
+            max = padded[end];
+            suffix[end] = max;
+            for (int i = end - 1; i >= start; i--) {
+                if (padded[i] > max) {
+                    max = padded[i];
+                }
+                suffix[i] = max;
+            }
+        }
+
+        // The window [i, i + size - 1] covers the tail of one block and the head of the next
+        for (int i = 0, d = dstOffset; i < n; i++, d += dstStride) {
+            float head = suffix[i];
+            float tail = prefix[i + size - 1];
+            dst[d] = head > tail ? head : tail;
+        }
+    }
+}
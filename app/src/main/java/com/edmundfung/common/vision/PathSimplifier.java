@@ -0,0 +1,114 @@
+package com.edmundfung.common.vision;
+
+// PathSimplifier decides, as waypoints come in, whether a new one can replace the last waypoint
+// instead of going after it. The path then runs straight from the waypoint before the last one
+// (the origin) to the new one, and every waypoint dropped on the way stays within tolerance of
+// that line. It only keeps the range of headings from the origin that pass close enough to all
+// dropped waypoints, so each decision is O(1). Positions are on the floor, x and z in meters.
+public class PathSimplifier {
+    private float tolerance;
+
+    private boolean hasOrigin = false;
+    private float originX;
+    private float originZ;
+    private boolean hasTail = false;
+    private float tailX;
+    private float tailZ;
+    // allowed headings from the origin, in radians relative to base
+    private float base;
+    private float low;
+    private float high;
+    // distance from the origin to the farthest waypoint dropped so far
+    private float reach;
+
+    public PathSimplifier(float tolerance) {
+        SetTolerance(tolerance);
+    }
+
+    // SetTolerance sets how far in meters a dropped waypoint may be from the simplified path
+    public void SetTolerance(float tolerance) throws IllegalArgumentException {
+        if (tolerance < 0) {
+            throw new IllegalArgumentException("Tolerance must not be negative, got " + tolerance);
+        }
+        this.tolerance = tolerance;
+    }
+
+    // Reset forgets the path, e.g. once every waypoint was reached
+    public void Reset() {
+        hasOrigin = false;
+        hasTail = false;
+    }
+
+    // CanReplace returns true when a waypoint at x, z can take the place of the last one
+    public boolean CanReplace(float x, float z) {
+        if (!hasOrigin || !hasTail) {
+            return false;
+        }
+        float dx = x - originX;
+        float dz = z - originZ;
+        float distance = (float) Math.sqrt(dx * dx + dz * dz);
+        // Going past the dropped waypoints keeps them next to the segment, not just the line
+        if (distance < reach) {
+            return false;
+        }
+        float heading = relative((float) Math.atan2(dz, dx));
+        return heading >= low && heading <= high;
+    }
+
+    // Replace moves the last waypoint to x, z. Only call it after CanReplace returned true.
+    public void Replace(float x, float z) {
+        float dx = x - originX;
+        float dz = z - originZ;
+        float distance = (float) Math.sqrt(dx * dx + dz * dz);
+        float heading = relative((float) Math.atan2(dz, dx));
+        float half = halfWidth(distance);
+        low = Math.max(low, heading - half);
+        high = Math.min(high, heading + half);
+        reach = distance;
+        tailX = x;
+        tailZ = z;
+    }
+
+    // Append adds a waypoint at x, z after the last one, which becomes the new origin
+    public void Append(float x, float z) {
+        if (hasTail) {
+            originX = tailX;
+            originZ = tailZ;
+            hasOrigin = true;
+        }
+        tailX = x;
+        tailZ = z;
+        hasTail = true;
+        if (!hasOrigin) {
+            return;
+        }
+        float dx = x - originX;
+        float dz = z - originZ;
+        float distance = (float) Math.sqrt(dx * dx + dz * dz);
+        base = (float) Math.atan2(dz, dx);
+        float half = halfWidth(distance);
+        low = -half;
+        high = half;
+        reach = distance;
+    }
+
+    // halfWidth is how far the heading may turn before a line from the origin passes further than
+    // tolerance from a point at distance
+    private float halfWidth(float distance) {
+        if (distance <= tolerance) {
+            return (float) Math.PI;
+        }
+        return (float) Math.asin(tolerance / distance);
+    }
+
+    // relative returns heading as an angle from base in [-pi, pi]
+    private float relative(float heading) {
+        float angle = heading - base;
+        if (angle > Math.PI) {
+            angle -= 2 * Math.PI;
+        } else if (angle < -Math.PI) {
+            angle += 2 * Math.PI;
+        }
+        return angle;
+    }
+}
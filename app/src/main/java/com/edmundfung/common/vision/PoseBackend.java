@@ -0,0 +1,24 @@
+package com.edmundfung.common.vision;
+
+import java.nio.ByteBuffer;
+
+// PoseBackend runs the openpose model. The input is inputSize x inputSize pixels laid out HWC with
+// B, G, R floats from 0 to 255. The output is the mapSize x mapSize x PoseDecoder.ChannelCount
+// heatmaps and PAFs, also laid out HWC.
+public interface PoseBackend {
+    void Run(float[] input, float[] output);
+
+    // NewInput returns a direct buffer, in native order, that one job can prepare its input in as
+    // floats and that Run(ByteBuffer, float[]) reads without copying it. Each job gets its own so
+    // the next frame can be prepared while the model reads this one. It returns null when the
+    // backend only takes float[] input. Call it again after Resize.
+    ByteBuffer NewInput();
+
+    // Run runs the model on an input from NewInput
+    void Run(ByteBuffer input, float[] output);
+
+    // Resize switches to a new input size without reloading the model
+    void Resize(int inputSize, int mapSize) throws IllegalArgumentException;
+
+    void Close();
+}
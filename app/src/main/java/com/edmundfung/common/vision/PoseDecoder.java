@@ -0,0 +1,519 @@
+package com.edmundfung.common.vision;
+
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// PoseDecoder turns the heatmap and PAF output of the openpose model into Humans. Every buffer is
+// allocated up front and reused so decoding a frame does not allocate anything.
+// logic from: https://github.com/liljom/openpose-tf-mobilenet-java
+public class PoseDecoder {
+    public static final int PartCount = 18;
+    public static final int HeatMapCount = 19;
+    public static final int PafMapCount = 38;
+    public static final int ChannelCount = HeatMapCount + PafMapCount;
+
+    public static final int[][] CocoPairs = {{1, 2}, {1, 5}, {2, 3}, {3, 4}, {5, 6}, {6, 7}, {1, 8}, {8, 9}, {9, 10}, {1, 11},
+            {11, 12}, {12, 13}, {1, 0}, {0, 14}, {14, 16}, {0, 15}, {15, 17}};
+    public static final int[][] CocoPairsNetwork = {{12, 13}, {20, 21}, {14, 15}, {16, 17}, {22, 23}, {24, 25}, {0, 1}, {2, 3},
+            {4, 5}, {6, 7}, {8, 9}, {10, 11}, {28, 29}, {30, 31}, {34, 35}, {32, 33}, {36, 37}, {18, 19}, {26, 27}};
+    public static final int PairCount = CocoPairs.length;
+
+    static final float NMS_Threshold = 0.15f;
+    private static final float Local_PAF_Threshold = 0.2f;
+    private static final float Part_Score_Threshold = 0.2f;
+    private static final int PAF_Count_Threshold = 5;
+    private static final int Part_Count_Threshold = 4;
+    private static final int DefaultFilterSize = 5;
+    private static final int PafSampleCount = 10;
+    // A pair can not pass once more samples than this are below Local_PAF_Threshold
+    private static final int PafMissLimit = PafSampleCount - PAF_Count_Threshold;
+
+    // Longest a limb can be, as a fraction of the larger map side. Anything longer is not scored.
+    // These are loose on purpose since only the legs may be in view when the person is close.
+    private static final float[] MaxLimbLength = {0.75f, 0.75f, 0.75f, 0.75f, 0.75f, 0.75f, 0.75f, 0.75f, 0.75f, 0.75f,
+            0.75f, 0.75f, 0.4f, 0.4f, 0.4f, 0.4f, 0.4f};
+
+    // Upper bounds on what a single frame can produce. Anything past these is dropped.
+    static final int MaxPeaks = 64;
+    private static final int MaxHumans = 32;
+
+    private final int mapWidth;
+    private final int mapHeight;
+
+    // PAF sample offsets along one axis, as [(d + maxDistance) * PafSampleCount + t] for a limb
+    // spanning d cells. Sample t of a limb is always the same number of cells from its start.
+    private final int maxDistance;
+    private final int[] sampleOffset;
+    private final int[] maxLimbLengthSq = new int[PairCount];
+
+    // Which parts, limbs and PAF channels take part in decoding. See SetRequiredParts.
+    private final boolean[] partActive = new boolean[PartCount];
+    private final boolean[] limbActive = new boolean[PairCount];
+    private final boolean[] pafActive = new boolean[PafMapCount];
+    // the same active parts and PAF channels as lists, for walking the output
+    private final int[] activeParts = new int[PartCount];
+    private final int[] activePafs = new int[PafMapCount];
+    private int activePartCount;
+    private int activePafCount;
+
+    // The output is split into one plane per channel, flattened as [channel * cells + cell]
+    private final int cells;
+    private final float[] heatMaps;
+    private final float[] pafMaps;
+
+    // NMS buffers
+    private MaxFilter maxFilter;
+    private final float[] rowMax;
+    private final float[] windowMax;
+
+    // peaks, flattened as [part * MaxPeaks + n]
+    private final int[] peakRow = new int[PartCount * MaxPeaks];
+    private final int[] peakCol = new int[PartCount * MaxPeaks];
+    private final int[] peakCount = new int[PartCount];
+
+    // limb scoring. Sequential decoding shares one scorer, parallel decoding gives every limb its
+    // own so they can run at the same time.
+    private final LimbScorer scorer = new LimbScorer();
+    private ForkJoinPool pool;
+    private LimbTask[] limbTasks;
+    private LimbTask[] activeLimbTasks;
+    private final RecursiveAction scoreAllLimbs = new RecursiveAction() {
+        @Override
+        protected void compute() {
+            for (LimbTask task : activeLimbTasks) {
+                task.reinitialize();
+            }
+            invokeAll(activeLimbTasks);
+        }
+    };
+
+    // final connections, flattened as [pair * MaxPeaks + n]
+    private final int[] connectionP1 = new int[PairCount * MaxPeaks];
+    private final int[] connectionP2 = new int[PairCount * MaxPeaks];
+    private final int[] connectionCount = new int[PairCount];
+
+    private final Human[] humanPool = new Human[MaxHumans];
+    private int humanCount;
+
+    public PoseDecoder(int mapWidth, int mapHeight) {
+        this(mapWidth, mapHeight, DefaultFilterSize);
+    }
+
+    public PoseDecoder(int mapWidth, int mapHeight, int filterSize) {
+        this.mapWidth = mapWidth;
+        this.mapHeight = mapHeight;
+        cells = mapWidth * mapHeight;
+        heatMaps = new float[PartCount * cells];
+        pafMaps = new float[PafMapCount * cells];
+        rowMax = new float[PartCount * cells];
+        windowMax = new float[cells];
+        maxDistance = Math.max(mapWidth, mapHeight) - 1;
+        sampleOffset = new int[(2 * maxDistance + 1) * PafSampleCount];
+        for (int d = -maxDistance; d <= maxDistance; d++) {
+            for (int t = 0; t < PafSampleCount; t++) {
+                sampleOffset[(d + maxDistance) * PafSampleCount + t] = (int) Math.floor((t * (float) d / (PafSampleCount - 1)) + 0.5);
+            }
+        }
+        for (int i = 0; i < PairCount; i++) {
+            SetMaxLimbLength(i, MaxLimbLength[i] * Math.max(mapWidth, mapHeight));
+        }
+        SetFilterSize(filterSize);
+        SetRequiredParts();
+        for (int i = 0; i < MaxHumans; i++) {
+            humanPool[i] = new Human();
+        }
+    }
+
+    // SetRequiredParts limits decoding to what is needed to find the given parts. Besides the parts
+    // themselves this keeps every limb on the skeleton path between them, so the parts can still
+    // be grouped into the same Human. Heatmaps and PAFs of everything else are skipped. Passing no
+    // parts decodes the whole skeleton. Call this between decodes.
+    public void SetRequiredParts(int... parts) throws IllegalArgumentException {
+        boolean[] required = new boolean[PartCount];
+        for (int part : parts) {
+            if (part < 0 || part >= PartCount) {
+                throw new IllegalArgumentException("Unknown part " + part);
+            }
+            required[part] = true;
+        }
+        for (int i = 0; i < PairCount; i++) {
+            limbActive[i] = true;
+        }
+        if (parts.length > 0) {
+            // The skeleton is a tree so trimming leaves that are not required, until there are
+            // none left, leaves the smallest subtree that connects the required parts
+            boolean trimmed = true;
+            while (trimmed) {
+                trimmed = false;
+                for (int i = 0; i < PairCount; i++) {
+                    if (!limbActive[i]) {
+                        continue;
+                    }
+                    for (int end = 0; end < 2; end++) {
+                        int part = CocoPairs[i][end];
+                        if (!required[part] && activeDegree(part) == 1) {
+                            limbActive[i] = false;
+                            trimmed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < PartCount; i++) {
+            partActive[i] = parts.length == 0 || required[i];
+        }
+        for (int i = 0; i < PafMapCount; i++) {
+            pafActive[i] = false;
+        }
+        for (int i = 0; i < PairCount; i++) {
+            if (limbActive[i]) {
+                partActive[CocoPairs[i][0]] = true;
+                partActive[CocoPairs[i][1]] = true;
+                pafActive[CocoPairsNetwork[i][0]] = true;
+                pafActive[CocoPairsNetwork[i][1]] = true;
+            }
+        }
+        activePartCount = 0;
+        for (int i = 0; i < PartCount; i++) {
+            if (partActive[i]) {
+                activeParts[activePartCount++] = i;
+            }
+        }
+        activePafCount = 0;
+        for (int i = 0; i < PafMapCount; i++) {
+            if (pafActive[i]) {
+                activePafs[activePafCount++] = i;
+            }
+        }
+        if (limbTasks != null) {
+            updateActiveLimbTasks();
+        }
+    }
+
+    public boolean IsPartActive(int part) {
+        return partActive[part];
+    }
+
+    // GetPeakCount, GetPeakRow and GetPeakCol give the heatmap peaks of part found by the last
+    // Decode, in row major order
+    int GetPeakCount(int part) {
+        return peakCount[part];
+    }
+
+    int GetPeakRow(int part, int n) {
+        return peakRow[part * MaxPeaks + n];
+    }
+
+    int GetPeakCol(int part, int n) {
+        return peakCol[part * MaxPeaks + n];
+    }
+
+    private void updateActiveLimbTasks() {
+        int activeLimbs = 0;
+        for (int i = 0; i < PairCount; i++) {
+            if (limbActive[i]) {
+                activeLimbs++;
+            }
+        }
+        activeLimbTasks = new LimbTask[activeLimbs];
+        for (int i = 0, n = 0; i < PairCount; i++) {
+            if (limbActive[i]) {
+                activeLimbTasks[n++] = limbTasks[i];
+            }
+        }
+    }
+
+    // activeDegree counts the active limbs that touch part
+    private int activeDegree(int part) {
+        int degree = 0;
+        for (int i = 0; i < PairCount; i++) {
+            if (limbActive[i] && (CocoPairs[i][0] == part || CocoPairs[i][1] == part)) {
+                degree++;
+            }
+        }
+        return degree;
+    }
+
+    // SetMaxLimbLength sets how long, in map cells, limb can be before candidate pairs for it are
+    // skipped without scoring
+    public void SetMaxLimbLength(int limb, float cells) {
+        maxLimbLengthSq[limb] = (int) (cells * cells);
+    }
+
+    // SetFilterSize sets the NMS window. Larger inputs give larger maps which need a larger window
+    // to suppress the same neighbourhood. The size must be odd.
+    public void SetFilterSize(int filterSize) throws IllegalArgumentException {
+        maxFilter = new MaxFilter(filterSize, Math.max(mapWidth, mapHeight));
+    }
+
+    public int GetFilterSize() {
+        return maxFilter.GetSize();
+    }
+
+    // SetParallelism scores limbs on a fork/join pool of the given number of threads. 1 or less
+    // goes back to scoring them one after another on the calling thread. Either way the result
+    // is the same.
+    public void SetParallelism(int threads) {
+        Close();
+        if (threads <= 1) {
+            return;
+        }
+        if (limbTasks == null) {
+            limbTasks = new LimbTask[PairCount];
+            for (int i = 0; i < PairCount; i++) {
+                limbTasks[i] = new LimbTask(i);
+            }
+            updateActiveLimbTasks();
+        }
+        pool = new ForkJoinPool(threads);
+    }
+
+    public boolean IsParallel() {
+        return pool != null;
+    }
+
+    // Close stops the worker threads of the parallel mode
+    public void Close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    // Decode fills humans with everyone found in output. The Humans are owned by the decoder and
+    // are only valid until the next call.
+    public void Decode(float[] output, Vector<Human> humans) {
+        humans.clear();
+        splitOutput(output);
+        findPeaks();
+        if (pool != null) {
+            scoreAllLimbs.reinitialize();
+            pool.invoke(scoreAllLimbs);
+        } else {
+            for (int i = 0; i < PairCount; i++) {
+                if (limbActive[i]) {
+                    scorer.Connect(i);
+                }
+            }
+        }
+        // Every limb only writes its own connections so grouping them in limb order gives the
+        // same Humans no matter how the limbs were scored
+        groupHumans();
+
+        // remove people with too few parts
+        for (int i = 0; i < humanCount; i++) {
+            Human human = humanPool[i];
+            int human_part_count = 0;
+            for (int j = 0; j < PartCount; j++) {
+                if (human.coords_index_assigned[j]) {
+                    human_part_count += 1;
+                }
+            }
+            if (human_part_count > Part_Count_Threshold) {
+                humans.addElement(human);
+            }
+        }
+    }
+
+    // splitOutput walks the interleaved HWC output once, a row at a time, and gathers the active
+    // channels into the heatmap and PAF planes. Each row is only about 10KB so it is still in cache
+    // while it is split up, and the row pass of the NMS filter runs on the fresh heatmap rows right
+    // away. Scattering each cell to every plane in storage order measured slower, see
+    // SplitOutputBenchmark.
+    private void splitOutput(float[] output) {
+        int rowStride = ChannelCount * mapWidth;
+        for (int j = 0; j < mapHeight; j++) {
+            int rowStart = rowStride * j;
+            int cellStart = mapWidth * j;
+            for (int i = 0; i < activePartCount; i++) {
+                int c = activeParts[i];
+                int plane = c * cells + cellStart;
+                for (int k = 0, o = rowStart + c; k < mapWidth; k++, o += ChannelCount) {
+                    heatMaps[plane + k] = output[o];
+                }
+                maxFilter.Filter(heatMaps, plane, 1, mapWidth, rowMax, plane, 1);
+            }
+            for (int i = 0; i < activePafCount; i++) {
+                int c = activePafs[i];
+                int plane = c * cells + cellStart;
+                for (int k = 0, o = rowStart + HeatMapCount + c; k < mapWidth; k++, o += ChannelCount) {
+                    pafMaps[plane + k] = output[o];
+                }
+            }
+        }
+    }
+
+    // findPeaks eliminates duplicate part recognitions. A cell is a peak if it is the max of the
+    // window around it. splitOutput already did the row pass of the max filter so only the column
+    // pass is left.
+    private void findPeaks() {
+        for (int i = 0; i < PartCount; i++) {
+            if (!partActive[i]) {
+                peakCount[i] = 0;
+                continue;
+            }
+            int plane = i * cells;
+            for (int k = 0; k < mapWidth; k++) {
+                maxFilter.Filter(rowMax, plane + k, mapWidth, mapHeight, windowMax, k, mapWidth);
+            }
+
+            int count = 0;
+            for (int cell = 0; cell < cells && count < MaxPeaks; cell++) {
+                float max_value = windowMax[cell];
+                if (max_value > NMS_Threshold && max_value == heatMaps[plane + cell]) {
+                    peakRow[i * MaxPeaks + count] = cell / mapWidth;
+                    peakCol[i * MaxPeaks + count] = cell % mapWidth;
+                    count++;
+                }
+            }
+            peakCount[i] = count;
+        }
+    }
+
+    // LimbScorer holds the scratch space for scoring one limb at a time
+    private class LimbScorer {
+        // scored candidate pairs of the limb being processed, sorted by score
+        private final int[] candidateP1 = new int[MaxPeaks * MaxPeaks];
+        private final int[] candidateP2 = new int[MaxPeaks * MaxPeaks];
+        private final float[] candidateScore = new float[MaxPeaks * MaxPeaks];
+        private final boolean[] partUsed = new boolean[MaxPeaks];
+
+        // Connect scores every candidate pair of limb i against the PAF and keeps the best
+        // non conflicting ones
+        void Connect(int i) {
+            int part1 = CocoPairs[i][0];
+            int part2 = CocoPairs[i][1];
+            int pafX = CocoPairsNetwork[i][1] * cells;
+            int pafY = CocoPairsNetwork[i][0] * cells;
+            int candidates = 0;
+            int maxLengthSq = maxLimbLengthSq[i];
+            for (int p1 = 0; p1 < peakCount[part1]; p1++) {
+                int p1x = peakRow[part1 * MaxPeaks + p1];
+                int p1y = peakCol[part1 * MaxPeaks + p1];
+                int start = p1x * mapWidth + p1y;
+                for (int p2 = 0; p2 < peakCount[part2]; p2++) {
+                    int dx = peakRow[part2 * MaxPeaks + p2] - p1x;
+                    int dy = peakCol[part2 * MaxPeaks + p2] - p1y;
+                    int lengthSq = dx * dx + dy * dy;
+                    // Skip parts on the same cell and ones too far apart to be the same person
+                    if (lengthSq == 0 || lengthSq > maxLengthSq) {
+                        continue;
+                    }
+                    float normVec = (float) Math.sqrt(lengthSq);
+                    float vx = dx / normVec;
+                    float vy = dy / normVec;
+                    int rowSamples = (dx + maxDistance) * PafSampleCount;
+                    int colSamples = (dy + maxDistance) * PafSampleCount;
+                    int count = 0;
+                    int misses = 0;
+                    float score = 0.0f;
+                    for (int t = 0; t < PafSampleCount && misses <= PafMissLimit; t++) {
+                        int location = start + sampleOffset[rowSamples + t] * mapWidth + sampleOffset[colSamples + t];
+                        float sample = vy * pafMaps[pafY + location] + vx * pafMaps[pafX + location];
+                        if (sample > Local_PAF_Threshold) {
+                            count += 1;
+                            score += sample;
+                        } else {
+                            misses++;
+                        }
+                    }
+                    if (score > Part_Score_Threshold && count >= PAF_Count_Threshold) {
+                        candidates = insertCandidate(candidates, p1, p2, score);
+                    }
+                }
+            }
+
+            // Both ends share one used set, like the original part_set did
+            for (int n = 0; n < MaxPeaks; n++) {
+                partUsed[n] = false;
+            }
+            int connections = 0;
+            for (int m = 0; m < candidates; m++) {
+                int p1 = candidateP1[m];
+                int p2 = candidateP2[m];
+                if (!partUsed[p1] && !partUsed[p2]) {
+                    connectionP1[i * MaxPeaks + connections] = p1;
+                    connectionP2[i * MaxPeaks + connections] = p2;
+                    connections++;
+                    partUsed[p1] = true;
+                    partUsed[p2] = true;
+                }
+            }
+            connectionCount[i] = connections;
+        }
+
+        // insertCandidate keeps the candidates sorted by descending score. Ties keep insertion order.
+        private int insertCandidate(int candidates, int p1, int p2, float score) {
+            int l = 0;
+            while (l < candidates && score <= candidateScore[l]) {
+                l++;
+            }
+            for (int m = candidates; m > l; m--) {
+                candidateP1[m] = candidateP1[m - 1];
+                candidateP2[m] = candidateP2[m - 1];
+                candidateScore[m] = candidateScore[m - 1];
+            }
+            candidateP1[l] = p1;
+            candidateP2[l] = p2;
+            candidateScore[l] = score;
+            return candidates + 1;
+        }
+    }
+
+    private class LimbTask extends RecursiveAction {
+        private final int limb;
+        private final LimbScorer scorer = new LimbScorer();
+
+        LimbTask(int limb) {
+            this.limb = limb;
+        }
+
+        @Override
+        protected void compute() {
+            scorer.Connect(limb);
+        }
+    }
+
+    // groupHumans merges connections that share a part into the same Human
+    private void groupHumans() {
+        humanCount = 0;
+        for (int i = 0; i < PairCount; i++) {
+            if (!limbActive[i]) {
+                continue;
+            }
+            int p1 = CocoPairs[i][0];
+            int p2 = CocoPairs[i][1];
+            for (int j = 0; j < connectionCount[i]; j++) {
+                int ip1 = connectionP1[i * MaxPeaks + j];
+                int ip2 = connectionP2[i * MaxPeaks + j];
+                Human human = null;
+                for (int k = 0; k < humanCount; k++) {
+                    Human h = humanPool[k];
+                    if ((ip1 == h.coords_index_set[p1] && h.coords_index_assigned[p1]) || (ip2 == h.coords_index_set[p2] && h.coords_index_assigned[p2])) {
+                        human = h;
+                        break;
+                    }
+                }
+                if (human == null) {
+                    if (humanCount == MaxHumans) {
+                        continue;
+                    }
+                    human = humanPool[humanCount++];
+                    human.Reset();
+                }
+                assignPart(human, p1, ip1);
+                assignPart(human, p2, ip2);
+            }
+        }
+    }
+
+    private void assignPart(Human human, int part, int index) {
+        human.parts_coords[part][0] = peakRow[part * MaxPeaks + index];
+        human.parts_coords[part][1] = peakCol[part * MaxPeaks + index];
+        human.coords_index_set[part] = index;
+        human.coords_index_assigned[part] = true;
+    }
+}
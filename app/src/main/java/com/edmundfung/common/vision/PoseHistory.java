@@ -0,0 +1,84 @@
+package com.edmundfung.common.vision;
+
+import com.google.ar.core.Pose;
+
+// PoseHistory remembers where the camera was for the last few frames, so a person found in an
+// image long after it was taken can be placed using the camera pose of that image and not the
+// pose the phone has moved to since. Poses between two frames are interpolated. It is filled
+// and read on the GL thread only.
+public class PoseHistory {
+    private final long[] timestamps;
+    private final Pose[] poses;
+    private final long[] recordedAt;
+    // next is where the next sample goes, count how many samples there are
+    private int next = 0;
+    private int count = 0;
+
+    public PoseHistory(int capacity) {
+        timestamps = new long[capacity];
+        poses = new Pose[capacity];
+        recordedAt = new long[capacity];
+    }
+
+    // Record adds the camera pose of the frame at timestamp. Timestamps must keep growing; a
+    // frame that is not newer than the last one is ignored.
+    public void Record(long timestamp, Pose pose) {
+        if (count > 0 && timestamp <= timestamps[index(0)]) {
+            return;
+        }
+        timestamps[next] = timestamp;
+        poses[next] = pose;
+        recordedAt[next] = System.nanoTime();
+        next = (next + 1) % timestamps.length;
+        count = Math.min(count + 1, timestamps.length);
+    }
+
+    public void Clear() {
+        for (int i = 0; i < poses.length; i++) {
+            poses[i] = null;
+        }
+        count = 0;
+    }
+
+    // GetPose returns the camera pose at timestamp, or null when it is not between the oldest and
+    // the newest frame
+    public Pose GetPose(long timestamp) {
+        int i = find(timestamp);
+        if (i < 0) {
+            return null;
+        }
+        int at = index(i);
+        if (timestamps[at] == timestamp) {
+            return poses[at];
+        }
+        if (i == 0) {
+            // newer than every frame
+            return null;
+        }
+        int after = index(i - 1);
+        float t = (float) (timestamp - timestamps[at]) / (timestamps[after] - timestamps[at]);
+        return Pose.makeInterpolated(poses[at], poses[after], t);
+    }
+
+    // GetRecordedAt returns the System.nanoTime when the last frame at or before timestamp was
+    // recorded, or 0 when there is none
+    public long GetRecordedAt(long timestamp) {
+        int i = find(timestamp);
+        return i < 0 ? 0 : recordedAt[index(i)];
+    }
+
+    // find returns how many frames back the newest frame at or before timestamp is, or -1
+    private int find(long timestamp) {
+        for (int i = 0; i < count; i++) {
+            if (timestamps[index(i)] <= timestamp) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // index returns the slot of the frame age frames before the newest one
+    private int index(int age) {
+        return (next - 1 - age + 2 * timestamps.length) % timestamps.length;
+    }
+}
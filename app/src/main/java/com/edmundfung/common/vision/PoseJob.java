@@ -0,0 +1,93 @@
+package com.edmundfung.common.vision;
+
+import android.opengl.Matrix;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+// PoseJob holds everything about one frame while it goes through pose detection: the model input
+// and output and the region of interest the input was taken from. Jobs are reused from frame to
+// frame and only reallocate when the input size or the backend changes.
+public class PoseJob {
+    // when the camera image was taken and how it maps to the display, see FrameSnapshot
+    long timestamp;
+    int displayWidth;
+    int displayHeight;
+    final float[] projection = new float[16];
+    // scratch space for GetCameraRay
+    private final float[] inverse = new float[16];
+    private final float[] clip = new float[4];
+    private final float[] point = new float[4];
+
+    int inputSize;
+    float[] input = new float[0];
+    float[] output = new float[0];
+    // inputBuffer takes the place of input when the backend reads its input in place, see
+    // PoseBackend.NewInput, and inputFloats is the view it is written through. Both are null
+    // otherwise.
+    ByteBuffer inputBuffer;
+    FloatBuffer inputFloats;
+    private PoseBackend backend;
+
+    // region of interest the input was converted from, in pixels of the full frame model input
+    boolean roiActive;
+    float roiTop;
+    float roiLeft;
+    float roiSize;
+
+    // allocate makes sure the buffers fit the given input size and backend
+    void allocate(int size, int mapSize, PoseBackend backend) {
+        if (inputSize == size && this.backend == backend) {
+            return;
+        }
+        inputSize = size;
+        this.backend = backend;
+        inputBuffer = backend.NewInput();
+        inputFloats = inputBuffer == null ? null : inputBuffer.asFloatBuffer();
+        input = new float[inputBuffer == null ? size * size * 3 : 0];
+        output = new float[mapSize * mapSize * PoseDecoder.ChannelCount];
+    }
+
+    public int GetInputSize() {
+        return inputSize;
+    }
+
+    public long GetTimestamp() {
+        return timestamp;
+    }
+
+    // GetCameraRay writes the ray through display pixel x, y in camera space, the camera looking
+    // down -z. ray gets the origin followed by the unit direction; the camera pose at GetTimestamp
+    // moves it into the world. It returns false when there is no display geometry yet.
+    public boolean GetCameraRay(float x, float y, float[] ray) {
+        if (displayWidth == 0 || displayHeight == 0) {
+            return false;
+        }
+        if (!Matrix.invertM(inverse, 0, projection, 0)) {
+            return false;
+        }
+        float ndcX = 2 * x / displayWidth - 1;
+        float ndcY = 1 - 2 * y / displayHeight;
+        unproject(ndcX, ndcY, -1, ray, 0);
+        unproject(ndcX, ndcY, 1, ray, 3);
+        float dx = ray[3] - ray[0];
+        float dy = ray[4] - ray[1];
+        float dz = ray[5] - ray[2];
+        float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        ray[3] = dx / length;
+        ray[4] = dy / length;
+        ray[5] = dz / length;
+        return true;
+    }
+
+    private void unproject(float ndcX, float ndcY, float ndcZ, float[] out, int offset) {
+        clip[0] = ndcX;
+        clip[1] = ndcY;
+        clip[2] = ndcZ;
+        clip[3] = 1;
+        Matrix.multiplyMV(point, 0, inverse, 0, clip, 0);
+        out[offset] = point[0] / point[3];
+        out[offset + 1] = point[1] / point[3];
+        out[offset + 2] = point[2] / point[3];
+    }
+}
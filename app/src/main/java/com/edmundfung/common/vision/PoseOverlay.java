@@ -0,0 +1,21 @@
+package com.edmundfung.common.vision;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+// PoseOverlay is one bitmap of the pose overlay. Tracker draws it on the decode thread and shows
+// it on the UI thread, passing three of them through a TripleBuffer so the one on screen is never
+// drawn into.
+class PoseOverlay {
+    Bitmap bitmap;
+    // canvas draws into bitmap
+    Canvas canvas;
+
+    // Fit makes sure the bitmap is size x size, it only allocates when the size changed
+    void Fit(int size) {
+        if (bitmap == null || bitmap.getWidth() != size) {
+            bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(bitmap);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.edmundfung.common.vision;
+
+import android.util.Log;
+
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// PosePipeline runs pose detection as three stages, each on its own thread: preparing the input
+// from the camera image, running the model and decoding. While the model runs on frame N, frame
+// N+1 is being prepared and frame N-1 decoded, so results come out every max(stage) instead of
+// every sum(stages). Stages hand jobs to each other through single slots and a stage waits while
+// the next one is still busy. The first stage always takes the newest frame from a FrameExchange.
+public class PosePipeline {
+    private static final String TAG = PosePipeline.class.getSimpleName();
+
+    public static final int StagePrepare = 0;
+    public static final int StageRun = 1;
+    public static final int StageDecode = 2;
+    public static final int StageCount = 3;
+    private static final String[] stageNames = {"pose prepare", "pose run", "pose decode"};
+
+    // One job per stage plus one waiting in a handoff slot
+    private static final int jobCount = StageCount + 1;
+    // weight of the newest sample in the stage latency averages
+    private static final float latencySmoothing = 0.1f;
+
+    // Listener gets the result of every frame on the decode thread
+    public interface Listener {
+        // OnHumans is called with the decoded humans of job. Both are reused once it returns.
+        void OnHumans(PoseJob job, Vector<Human> humans);
+    }
+
+    private final TensorFlowPoseDetector detector;
+    private final FrameExchange frames;
+    private final Listener listener;
+    private final PoseJob[] jobs = new PoseJob[jobCount];
+    private final BlockingQueue<PoseJob> free = new ArrayBlockingQueue<>(jobCount);
+    private final BlockingQueue<PoseJob> runSlot = new ArrayBlockingQueue<>(1);
+    private final BlockingQueue<PoseJob> decodeSlot = new ArrayBlockingQueue<>(1);
+
+    // changes are applied by the prepare thread once no job is past it
+    private final ConcurrentLinkedQueue<Runnable> changes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Object idleLock = new Object();
+
+    // smoothed time spent in each stage, in nanoseconds
+    private final AtomicLongArray latency = new AtomicLongArray(StageCount);
+    private Thread[] threads;
+
+    public PosePipeline(TensorFlowPoseDetector detector, FrameExchange frames, Listener listener) {
+        this.detector = detector;
+        this.frames = frames;
+        this.listener = listener;
+        for (int i = 0; i < jobCount; i++) {
+            jobs[i] = new PoseJob();
+            free.add(jobs[i]);
+        }
+    }
+
+    public synchronized void Start() {
+        if (threads != null) {
+            return;
+        }
+        threads = new Thread[] {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    prepareLoop();
+                }
+            }, stageNames[StagePrepare]),
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runLoop();
+                }
+            }, stageNames[StageRun]),
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    decodeLoop();
+                }
+            }, stageNames[StageDecode]),
+        };
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    // Stop ends the stage threads and drops the frames that were in flight
+    public synchronized void Stop() {
+        if (threads == null) {
+            return;
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        threads = null;
+
+        runSlot.clear();
+        decodeSlot.clear();
+        free.clear();
+        for (PoseJob job : jobs) {
+            free.add(job);
+        }
+        inFlight.set(0);
+    }
+
+    // Post runs change once every stage is idle, e.g. to switch the backend or input size. It
+    // runs on the prepare thread before the next frame is prepared.
+    public void Post(Runnable change) {
+        changes.add(change);
+        frames.Wake();
+    }
+
+    // GetLatency returns the smoothed time frames spend in a stage, in milliseconds
+    public float GetLatency(int stage) {
+        return latency.get(stage) / 1e6f;
+    }
+
+    private void prepareLoop() {
+        try {
+            while (true) {
+                PoseJob job = free.take();
+                FrameSnapshot snapshot;
+                do {
+                    applyChanges();
+                    snapshot = frames.Take();
+                } while (snapshot == null);
+                long start = System.nanoTime();
+                detector.Prepare(snapshot, job);
+                record(StagePrepare, start);
+                inFlight.incrementAndGet();
+                runSlot.put(job);
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    private void runLoop() {
+        try {
+            while (true) {
+                PoseJob job = runSlot.take();
+                long start = System.nanoTime();
+                detector.Run(job);
+                record(StageRun, start);
+                decodeSlot.put(job);
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    private void decodeLoop() {
+        try {
+            while (true) {
+                PoseJob job = decodeSlot.take();
+                long start = System.nanoTime();
+                try {
+                    listener.OnHumans(job, detector.Decode(job));
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to handle detected humans", e);
+                }
+                record(StageDecode, start);
+                free.offer(job);
+                if (inFlight.decrementAndGet() == 0) {
+                    synchronized (idleLock) {
+                        idleLock.notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    // applyChanges waits for the jobs past the prepare stage to finish and then runs the changes
+    private void applyChanges() throws InterruptedException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        synchronized (idleLock) {
+            while (inFlight.get() > 0) {
+                idleLock.wait();
+            }
+        }
+        Runnable change;
+        while ((change = changes.poll()) != null) {
+            change.run();
+        }
+    }
+
+    private void record(int stage, long start) {
+        long elapsed = System.nanoTime() - start;
+        long average = latency.get(stage);
+        latency.set(stage, average == 0 ? elapsed : average + (long) ((elapsed - average) * latencySmoothing));
+    }
+}
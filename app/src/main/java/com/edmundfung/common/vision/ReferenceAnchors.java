@@ -0,0 +1,104 @@
+package com.edmundfung.common.vision;
+
+import com.google.ar.core.Anchor;
+import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
+import com.google.ar.core.Trackable;
+
+// ReferenceAnchors keeps the few ARCore anchors waypoints are stored relative to, one per plane.
+// ARCore refines every attached anchor on each update, so sharing them keeps the tracking cost
+// the same no matter how many waypoints there are. An anchor is detached once no waypoint uses
+// it anymore. ARCore hands out a new wrapper for a plane on every call, so planes are compared
+// with equals.
+public class ReferenceAnchors {
+    private final Trackable[] planes;
+    private final Anchor[] anchors;
+    private final int[] users;
+
+    public ReferenceAnchors(int capacity) {
+        planes = new Trackable[capacity];
+        anchors = new Anchor[capacity];
+        users = new int[capacity];
+    }
+
+    // Acquire returns the reference anchor of plane, anchoring a new one at pose when the plane
+    // has none yet. When every reference is taken, the one closest to pose is shared. Every
+    // Acquire needs a Release.
+    public Anchor Acquire(Trackable plane, Pose pose) {
+        plane = resolve(plane);
+        int free = -1;
+        for (int i = 0; i < anchors.length; i++) {
+            if (anchors[i] == null) {
+                if (free < 0) {
+                    free = i;
+                }
+            } else if (plane.equals(resolve(planes[i]))) {
+                users[i]++;
+                return anchors[i];
+            }
+        }
+        int i = free >= 0 ? free : closest(pose);
+        if (anchors[i] == null) {
+            planes[i] = plane;
+            anchors[i] = plane.createAnchor(pose);
+        }
+        users[i]++;
+        return anchors[i];
+    }
+
+    // Release gives back an anchor from Acquire
+    public void Release(Anchor anchor) {
+        for (int i = 0; i < anchors.length; i++) {
+            if (anchors[i] == anchor) {
+                users[i]--;
+                if (users[i] <= 0) {
+                    anchors[i].detach();
+                    anchors[i] = null;
+                    planes[i] = null;
+                    users[i] = 0;
+                }
+                return;
+            }
+        }
+    }
+
+    // Size returns how many anchors are attached
+    public int Size() {
+        int size = 0;
+        for (Anchor anchor : anchors) {
+            if (anchor != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private int closest(Pose pose) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int i = 0; i < anchors.length; i++) {
+            Pose p = anchors[i].getPose();
+            float dx = p.tx() - pose.tx();
+            float dy = p.ty() - pose.ty();
+            float dz = p.tz() - pose.tz();
+            float distance = dx * dx + dy * dy + dz * dz;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    // resolve follows planes that were merged into bigger ones
+    private static Trackable resolve(Trackable trackable) {
+        if (!(trackable instanceof Plane)) {
+            return trackable;
+        }
+        Plane plane = (Plane) trackable;
+        while (plane.getSubsumedBy() != null) {
+            plane = plane.getSubsumedBy();
+        }
+        return plane;
+    }
+}
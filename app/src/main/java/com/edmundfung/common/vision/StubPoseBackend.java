@@ -0,0 +1,83 @@
+package com.edmundfung.common.vision;
+
+import java.nio.ByteBuffer;
+
+// StubPoseBackend ignores its input and always "sees" the same person standing in the middle of
+// the image. It needs no model or native code so the rest of the pipeline can run on a plain JVM.
+public class StubPoseBackend implements PoseBackend {
+    // Part positions as fractions of the map, {row, column}, in Human part order
+    private static final float[][] parts = {
+            {0.15f, 0.50f}, {0.25f, 0.50f}, {0.25f, 0.40f}, {0.40f, 0.37f}, {0.52f, 0.36f}, {0.25f, 0.60f},
+            {0.40f, 0.63f}, {0.52f, 0.64f}, {0.55f, 0.44f}, {0.72f, 0.44f}, {0.88f, 0.44f}, {0.55f, 0.56f},
+            {0.72f, 0.56f}, {0.88f, 0.56f}, {0.13f, 0.47f}, {0.13f, 0.53f}, {0.14f, 0.44f}, {0.14f, 0.56f}};
+
+    private float[] result;
+
+    public StubPoseBackend(int mapSize) {
+        Resize(mapSize * TensorFlowPoseDetector.Stride, mapSize);
+    }
+
+    @Override
+    public void Resize(int inputSize, int mapSize) {
+        result = new float[mapSize * mapSize * PoseDecoder.ChannelCount];
+        int[][] cells = new int[parts.length][2];
+        for (int i = 0; i < parts.length; i++) {
+            cells[i][0] = Math.round(parts[i][0] * (mapSize - 1));
+            cells[i][1] = Math.round(parts[i][1] * (mapSize - 1));
+        }
+
+        // heatmaps are a small gaussian around every part
+        for (int i = 0; i < parts.length; i++) {
+            for (int r = 0; r < mapSize; r++) {
+                for (int c = 0; c < mapSize; c++) {
+                    int dr = r - cells[i][0];
+                    int dc = c - cells[i][1];
+                    result[(r * mapSize + c) * PoseDecoder.ChannelCount + i] = (float) Math.exp(-(dr * dr + dc * dc) / 2.0);
+                }
+            }
+        }
+
+        // PAFs are the unit vector of the limb on every cell within one cell of it
+        for (int i = 0; i < PoseDecoder.PairCount; i++) {
+            int[] a = cells[PoseDecoder.CocoPairs[i][0]];
+            int[] b = cells[PoseDecoder.CocoPairs[i][1]];
+            float dr = b[0] - a[0];
+            float dc = b[1] - a[1];
+            float length = (float) Math.sqrt(dr * dr + dc * dc);
+            if (length == 0) {
+                continue;
+            }
+            int rowChannel = PoseDecoder.HeatMapCount + PoseDecoder.CocoPairsNetwork[i][1];
+            int colChannel = PoseDecoder.HeatMapCount + PoseDecoder.CocoPairsNetwork[i][0];
+            for (int r = 0; r < mapSize; r++) {
+                for (int c = 0; c < mapSize; c++) {
+                    float along = ((r - a[0]) * dr + (c - a[1]) * dc) / length;
+                    float across = Math.abs((r - a[0]) * dc - (c - a[1]) * dr) / length;
+                    if (along >= -1 && along <= length + 1 && across <= 1) {
+                        result[(r * mapSize + c) * PoseDecoder.ChannelCount + rowChannel] = dr / length;
+                        result[(r * mapSize + c) * PoseDecoder.ChannelCount + colChannel] = dc / length;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void Run(float[] input, float[] output) {
+        System.arraycopy(result, 0, output, 0, result.length);
+    }
+
+    @Override
+    public ByteBuffer NewInput() {
+        return null;
+    }
+
+    @Override
+    public void Run(ByteBuffer input, float[] output) {
+        System.arraycopy(result, 0, output, 0, result.length);
+    }
+
+    @Override
+    public void Close() {
+    }
+}
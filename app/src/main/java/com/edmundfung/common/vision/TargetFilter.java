@@ -0,0 +1,113 @@
+package com.edmundfung.common.vision;
+
+// TargetFilter tracks where the person being followed stands with a constant velocity Kalman
+// filter. Detections come in only every few hundred milliseconds and jump around, the filter
+// smooths them and predicts where the person is in between. Positions are on the floor, x and z
+// in meters, and times are in nanoseconds. Both axes use the same noise, so they share one
+// covariance.
+public class TargetFilter {
+    private static final float nanosPerSecond = 1e9f;
+    // how unsure a new track is about its velocity, in (m/s)^2
+    private static final float initialVelocityVariance = 1f;
+
+    private float accelerationNoise;
+    private float measurementVariance;
+    private long maxAge;
+
+    private boolean tracking = false;
+    private long timestamp;
+    private float x;
+    private float z;
+    private float vx;
+    private float vz;
+    // covariance of position and velocity along one axis
+    private float pp;
+    private float pv;
+    private float vv;
+
+    // TargetFilter expects detections to be off by measurementNoise meters and the person to
+    // change speed by about accelerationNoise m/s^2. The track is lost after maxAge nanoseconds
+    // without a detection.
+    public TargetFilter(float measurementNoise, float accelerationNoise, long maxAge) {
+        SetNoise(measurementNoise, accelerationNoise);
+        this.maxAge = maxAge;
+    }
+
+    public void SetNoise(float measurementNoise, float accelerationNoise) throws IllegalArgumentException {
+        if (!(measurementNoise > 0) || accelerationNoise < 0) {
+            throw new IllegalArgumentException(String.format("Bad noise, measurement %f acceleration %f", measurementNoise, accelerationNoise));
+        }
+        measurementVariance = measurementNoise * measurementNoise;
+        this.accelerationNoise = accelerationNoise * accelerationNoise;
+    }
+
+    public void Reset() {
+        tracking = false;
+    }
+
+    // IsTracking returns true when there was a detection less than maxAge before now
+    public boolean IsTracking(long now) {
+        return tracking && now - timestamp <= maxAge;
+    }
+
+    // Update adds a detection at x, z seen at timestamp. Detections older than the last one only
+    // correct the position, they do not move the track back in time.
+    public void Update(long timestamp, float x, float z) {
+        if (!IsTracking(timestamp)) {
+            start(timestamp, x, z);
+            return;
+        }
+        if (timestamp > this.timestamp) {
+            predict((timestamp - this.timestamp) / nanosPerSecond);
+            this.timestamp = timestamp;
+        }
+        float s = pp + measurementVariance;
+        float kp = pp / s;
+        float kv = pv / s;
+        float ex = x - this.x;
+        float ez = z - this.z;
+        this.x += kp * ex;
+        this.z += kp * ez;
+        vx += kv * ex;
+        vz += kv * ez;
+        vv -= kv * pv;
+        pv -= kp * pv;
+        pp -= kp * pp;
+    }
+
+    // Predict writes the position and velocity expected at now into out as x, z, vx, vz. It
+    // returns false and leaves out alone when there is no track.
+    public boolean Predict(long now, float[] out) {
+        if (!IsTracking(now)) {
+            return false;
+        }
+        float dt = Math.max(now - timestamp, 0) / nanosPerSecond;
+        out[0] = x + vx * dt;
+        out[1] = z + vz * dt;
+        out[2] = vx;
+        out[3] = vz;
+        return true;
+    }
+
+    private void start(long timestamp, float x, float z) {
+        tracking = true;
+        this.timestamp = timestamp;
+        this.x = x;
+        this.z = z;
+        vx = 0;
+        vz = 0;
+        pp = measurementVariance;
+        pv = 0;
+        vv = initialVelocityVariance;
+    }
+
+    // predict moves the track dt seconds ahead, growing the covariance by a random acceleration
+    private void predict(float dt) {
+        x += vx * dt;
+        z += vz * dt;
+        float q = accelerationNoise;
+        pp += dt * (2 * pv + dt * vv) + q * dt * dt * dt / 3;
+        pv += dt * vv + q * dt * dt / 2;
+        vv += q * dt;
+    }
+}
@@ -0,0 +1,168 @@
+package com.edmundfung.common.vision;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// TensorFlowLiteBackend runs a .tflite export of the model. Float, uint8 and int8 models are
+// supported, and the input and output live in direct ByteBuffers that the interpreter reads and
+// writes in place. Float models hand out those input buffers through NewInput so the input is
+// prepared right where the interpreter reads it; quantized ones still quantize a float[].
+public class TensorFlowLiteBackend implements PoseBackend {
+    public static final String defaultModelFilename = "graph_freeze.tflite";
+
+    private final Interpreter interpreter;
+    private final DataType inputType;
+    private final DataType outputType;
+    private ByteBuffer inputBuffer;
+    private ByteBuffer outputBuffer;
+    private FloatBuffer inputFloats;
+    private FloatBuffer outputFloats;
+    private final float inputScale;
+    private final int inputZeroPoint;
+    private final float outputScale;
+    private final int outputZeroPoint;
+
+    public TensorFlowLiteBackend(final AssetManager assetManager, String modelFilename, int inputSize, int mapSize, int threads)
+            throws IOException, IllegalArgumentException {
+        Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(threads);
+        interpreter = new Interpreter(loadModel(assetManager, modelFilename), options);
+
+        Tensor in = interpreter.getInputTensor(0);
+        Tensor out = interpreter.getOutputTensor(0);
+        inputType = in.dataType();
+        outputType = out.dataType();
+        inputScale = in.quantizationParams().getScale();
+        inputZeroPoint = in.quantizationParams().getZeroPoint();
+        outputScale = out.quantizationParams().getScale();
+        outputZeroPoint = out.quantizationParams().getZeroPoint();
+        Resize(inputSize, mapSize);
+    }
+
+    @Override
+    public void Resize(int inputSize, int mapSize) throws IllegalArgumentException {
+        Tensor in = interpreter.getInputTensor(0);
+        if (in.shape().length == 4 && in.shape()[1] != inputSize) {
+            interpreter.resizeInput(0, new int[] {1, inputSize, inputSize, 3});
+            interpreter.allocateTensors();
+            in = interpreter.getInputTensor(0);
+        }
+        Tensor out = interpreter.getOutputTensor(0);
+        checkShape(in.shape(), inputSize, 3);
+        checkShape(out.shape(), mapSize, PoseDecoder.ChannelCount);
+
+        inputBuffer = ByteBuffer.allocateDirect(in.numBytes()).order(ByteOrder.nativeOrder());
+        outputBuffer = ByteBuffer.allocateDirect(out.numBytes()).order(ByteOrder.nativeOrder());
+        inputFloats = inputBuffer.asFloatBuffer();
+        outputFloats = outputBuffer.asFloatBuffer();
+    }
+
+    @Override
+    public ByteBuffer NewInput() {
+        if (inputType != DataType.FLOAT32) {
+            return null;
+        }
+        return ByteBuffer.allocateDirect(interpreter.getInputTensor(0).numBytes()).order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public void Run(ByteBuffer input, float[] output) {
+        input.rewind();
+        outputBuffer.rewind();
+        interpreter.run(input, outputBuffer);
+        readOutput(output);
+    }
+
+    @Override
+    public void Run(float[] input, float[] output) {
+        inputBuffer.rewind();
+        switch (inputType) {
+            case FLOAT32:
+                // The pipeline prepares float input in a buffer from NewInput, this copy is only
+                // for callers that have a float[]
+                inputFloats.rewind();
+                inputFloats.put(input);
+                break;
+            case UINT8:
+            case INT8:
+                // uint8 is stored as 0..255 and int8 as -128..127 with the usual affine mapping.
+                // Casting to byte keeps the low 8 bits which is right for both.
+                for (int i = 0; i < input.length; i++) {
+                    inputBuffer.put(i, (byte) quantize(input[i]));
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unsupported input type " + inputType);
+        }
+
+        outputBuffer.rewind();
+        interpreter.run(inputBuffer, outputBuffer);
+        readOutput(output);
+    }
+
+    // readOutput dequantizes the output of the last run into output
+    private void readOutput(float[] output) {
+        outputBuffer.rewind();
+        switch (outputType) {
+            case FLOAT32:
+                outputFloats.rewind();
+                outputFloats.get(output);
+                break;
+            case UINT8:
+                for (int i = 0; i < output.length; i++) {
+                    output[i] = ((outputBuffer.get(i) & 0xFF) - outputZeroPoint) * outputScale;
+                }
+                break;
+            case INT8:
+                for (int i = 0; i < output.length; i++) {
+                    output[i] = (outputBuffer.get(i) - outputZeroPoint) * outputScale;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unsupported output type " + outputType);
+        }
+    }
+
+    @Override
+    public void Close() {
+        interpreter.close();
+    }
+
+    private int quantize(float value) {
+        // A model without quantization parameters takes the raw pixel values
+        if (inputScale == 0) {
+            return inputType == DataType.INT8 ? (int) value - 128 : (int) value;
+        }
+        int q = Math.round(value / inputScale) + inputZeroPoint;
+        int min = inputType == DataType.INT8 ? -128 : 0;
+        int max = inputType == DataType.INT8 ? 127 : 255;
+        return q < min ? min : (q > max ? max : q);
+    }
+
+    private static void checkShape(int[] shape, int size, int channels) throws IllegalArgumentException {
+        if (shape.length != 4 || shape[0] != 1 || shape[1] != size || shape[2] != size || shape[3] != channels) {
+            throw new IllegalArgumentException(String.format("Expected tensor of 1x%dx%dx%d", size, size, channels));
+        }
+    }
+
+    private static MappedByteBuffer loadModel(AssetManager assetManager, String modelFilename) throws IOException {
+        AssetFileDescriptor fd = assetManager.openFd(modelFilename);
+        try (FileInputStream stream = new FileInputStream(fd.getFileDescriptor())) {
+            return stream.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getDeclaredLength());
+        } finally {
+            fd.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.edmundfung.common.vision;
+
+import android.content.res.AssetManager;
+
+import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// TensorFlowMobileBackend runs the float graph_freeze.pb model with the tensorflow-android library
+public class TensorFlowMobileBackend implements PoseBackend {
+    private static final String inputName = "image";
+    private static final String outputName = "Openpose/concat_stage7";
+    private static final String[] outputNames = new String[] {outputName};
+    private static final String modelFilename = "file:///android_asset/graph_freeze.pb";
+
+    private final boolean logStats = false;
+    private final TensorFlowInferenceInterface inferenceInterface;
+    private int inputSize;
+
+    public TensorFlowMobileBackend(final AssetManager assetManager, int inputSize) {
+        this.inputSize = inputSize;
+        inferenceInterface = new TensorFlowInferenceInterface(assetManager, modelFilename);
+    }
+
+    @Override
+    public void Run(float[] input, float[] output) {
+        // Copy the input data into TensorFlow.
+        inferenceInterface.feed(inputName, input, 1, inputSize, inputSize, 3);
+        inferenceInterface.run(outputNames, logStats);
+        // Copy the output Tensor back into the output array.
+        inferenceInterface.fetch(outputName, output);
+    }
+
+    @Override
+    public ByteBuffer NewInput() {
+        return ByteBuffer.allocateDirect(inputSize * inputSize * 3 * 4).order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public void Run(ByteBuffer input, float[] output) {
+        // feed copies the floats into a native tensor, the same as it does with a float[]
+        input.rewind();
+        inferenceInterface.feed(inputName, input.asFloatBuffer(), 1, inputSize, inputSize, 3);
+        inferenceInterface.run(outputNames, logStats);
+        inferenceInterface.fetch(outputName, output);
+    }
+
+    @Override
+    public void Resize(int inputSize, int mapSize) {
+        // The graph takes any image size so the size just goes along with the next feed
+        this.inputSize = inputSize;
+    }
+
+    @Override
+    public void Close() {
+        inferenceInterface.close();
+    }
+}
@@ -2,11 +2,6 @@ package com.edmundfung.common.vision;
 
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.media.Image;
 import android.os.Trace;
 import android.util.Log;
@@ -14,69 +9,234 @@ import android.util.Log;
 import com.google.ar.core.Frame;
 import com.google.ar.core.exceptions.NotYetAvailableException;
 
-import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
-
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.util.Vector;
 
 // logic from: https://github.com/liljom/openpose-tf-mobilenet-java
 // logic also from: https://gist.github.com/jax79sg/f111bfbb6d1ef87e41cbacdfe70d8a7e
 public class TensorFlowPoseDetector {
-    private boolean logStats = false;
-    private TensorFlowInferenceInterface inferenceInterface;
+    // Backend picks what runs the model
+    public enum Backend {
+        // float graph_freeze.pb on tensorflow-android
+        TensorFlowMobile,
+        // graph_freeze.tflite, float or quantized, on TensorFlow Lite
+        TensorFlowLite,
+        // a fixed fake person, see StubPoseBackend
+        Stub
+    }
+
+    private final AssetManager assetManager;
+    private PoseBackend backend;
+    private YuvConverter yuvConverter;
 
     // buffers
     private int[] input;
-    private float[] floatInput;
-    private float[] output;
+    // job used by PrepareInput and FindHumans when not running in a PosePipeline
+    private final PoseJob job = new PoseJob();
 
     // model const
-    private final String inputName = "image";
-    private final String outputName = "Openpose/concat_stage7";
-    private final String[] outputNames = new String[] {outputName};
-    private final String modelFilename = "file:///android_asset/graph_freeze.pb";
-
-    private final float NMS_Threshold = 0.15f;
-    private final float Local_PAF_Threshold = 0.2f;
-    private final float Part_Score_Threshold = 0.2f;
-    private final int PAF_Count_Threshold = 5;
-    private final int Part_Count_Threshold = 4;
-
-    private final int inputSize = 368;
-    private final int MapHeight = inputSize / 8;
-    private final int MapWidth = inputSize / 8;
-    private final int HeatMapCount = 19;
-    private final int MaxPairCount = 17;
-    private final int PafMapCount = 38;
-    private final int MaximumFilterSize = 5;
+    // The model downsamples by 8 so any input size that is a multiple of it works
+    public static final int Stride = 8;
+    public static final int DefaultInputSize = 368;
+    private int inputSize;
+    private int MapHeight;
+    private int MapWidth;
     private final int frameWidth = 640;
     private final int frameHeight = 480;
 
-    public static final int[][] CocoPairs = {{1, 2}, {1, 5}, {2, 3}, {3, 4}, {5, 6}, {6, 7}, {1, 8}, {8, 9}, {9, 10}, {1, 11},
-            {11, 12}, {12, 13}, {1, 0}, {0, 14}, {14, 16}, {0, 15}, {15, 17}};
-    private final int[][] CocoPairsNetwork = {{12, 13}, {20, 21}, {14, 15}, {16, 17}, {22, 23}, {24, 25}, {0, 1}, {2, 3},
-            {4, 5}, {6, 7}, {8, 9}, {10, 11}, {28, 29}, {30, 31}, {34, 35}, {32, 33}, {36, 37}, {18, 19}, {26, 27}};
+    public static final int[][] CocoPairs = PoseDecoder.CocoPairs;
+
+    private PoseDecoder decoder;
+    private final Vector<Human> humans = new Vector<Human>();
+    // decoder settings, kept to carry them over when the input size changes
+    private int[] requiredParts = new int[0];
+    private int decodeThreads = 1;
+
+    // Region of interest around the last person found, in pixels of the full frame model input.
+    // The box around them is padded, kept square and smoothed between inferences. It is read when
+    // preparing an input and written when decoding, which may be different threads, so all access
+    // goes through roiLock.
+    private final Object roiLock = new Object();
+    private boolean roiEnabled = false;
+    private boolean roiActive = false;
+    private float roiTop;
+    private float roiLeft;
+    private float roiSize;
+    private int roiMisses = 0;
+    private static final float roiPadding = 1.6f;
+    private static final float roiSmoothing = 0.5f;
+    private static final int roiMaxMisses = 2;
+    // smallest region, as a fraction of the frame
+    private static final float roiMinSize = 1 / 3f;
 
 
     public TensorFlowPoseDetector(final AssetManager assetManager) {
-        inferenceInterface = new TensorFlowInferenceInterface(assetManager, modelFilename);
+        this.assetManager = assetManager;
+        backend = new TensorFlowMobileBackend(assetManager, DefaultInputSize);
+        allocate(DefaultInputSize);
+    }
+
+    public int GetInputSize() {
+        return inputSize;
+    }
+
+    // SetInputSize changes the resolution the model runs at, e.g. 224, 256, 320 or 368. Smaller is
+    // faster but finds less. The backend keeps its session and only resizes its tensors. Call this
+    // from the thread that runs FindHumans, or through PosePipeline.Post.
+    public void SetInputSize(int size) throws IllegalArgumentException {
+        if (size <= 0 || size % Stride != 0) {
+            throw new IllegalArgumentException("Input size must be a positive multiple of " + Stride + ", got " + size);
+        }
+        if (size == inputSize) {
+            return;
+        }
+        backend.Resize(size, size / Stride);
+        decoder.Close();
+        allocate(size);
+    }
+
+    // allocate sizes every buffer for the given input size. This is the only place the sizes of
+    // the input, the heatmaps and the region of interest are worked out.
+    private void allocate(int size) {
+        inputSize = size;
+        MapHeight = size / Stride;
+        MapWidth = size / Stride;
         input = new int[inputSize * inputSize];
-        floatInput = new float[inputSize * inputSize *3];
-        output = new float[MapHeight * MapWidth * (HeatMapCount + PafMapCount)];
+        job.allocate(inputSize, MapHeight, backend);
+        decoder = new PoseDecoder(MapWidth, MapHeight);
+        decoder.SetRequiredParts(requiredParts);
+        decoder.SetParallelism(decodeThreads);
+        yuvConverter = new YuvConverter(frameHeight, inputSize);
+        synchronized (roiLock) {
+            roiActive = false;
+        }
     }
 
+    // SetRegionOfInterest makes every inference after a detection run on just the area around the
+    // person that was found, which gives more pixels to the person for the same input size. Once
+    // nobody is found for a few inferences it goes back to the whole frame.
+    public void SetRegionOfInterest(boolean enabled) {
+        synchronized (roiLock) {
+            roiEnabled = enabled;
+            roiActive = false;
+        }
+    }
 
-    public Bitmap GetBitmap(Frame frame) throws NotYetAvailableException {
+    // SetBackend swaps what runs the model. threads is only used by TensorFlowLite. Call this from
+    // the thread that runs FindHumans, or through PosePipeline.Post.
+    public void SetBackend(Backend type, int threads) throws IOException, IllegalArgumentException {
+        PoseBackend next;
+        switch (type) {
+            case TensorFlowLite:
+                next = new TensorFlowLiteBackend(assetManager, TensorFlowLiteBackend.defaultModelFilename, inputSize, MapWidth, threads);
+                break;
+            case Stub:
+                next = new StubPoseBackend(MapWidth);
+                break;
+            default:
+                next = new TensorFlowMobileBackend(assetManager, inputSize);
+                break;
+        }
+        backend.Close();
+        backend = next;
+    }
+
+    // SetRequiredParts only decodes what is needed to find the given parts (see Human for the part
+    // numbers). The other parts of the returned Humans stay unassigned.
+    public void SetRequiredParts(int... parts) {
+        decoder.SetRequiredParts(parts);
+        requiredParts = parts;
+    }
+
+    // SetDecodeThreads lets the decoder score limbs on several threads. Crowded frames have many
+    // candidate pairs per limb so they benefit the most. 1 keeps decoding on the calling thread.
+    public void SetDecodeThreads(int threads) {
+        decoder.SetParallelism(threads);
+        decodeThreads = threads;
+    }
+
+    // PrepareInput converts the camera image of the frame straight into the model input: the top
+    // square of the image, scaled to inputSize and rotated 90 degrees clockwise.
+    public void PrepareInput(Frame frame) throws NotYetAvailableException {
         Image image = frame.acquireCameraImage();
-        Bitmap bitmap = imageToBitmap(image);
-        image.close();
-        bitmap = Bitmap.createBitmap(bitmap, 0,0, frameHeight, frameHeight); // chop off the bottom of frame
-        bitmap = Bitmap.createScaledBitmap(bitmap, inputSize, inputSize, true);
-        // rotate 90 degrees clockwise
-        Matrix matrix = new Matrix();
-        matrix.postRotate(90);
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        try {
+            Trace.beginSection("preprocessImage");
+            setRegion(job);
+            if (job.inputFloats != null) {
+                yuvConverter.Convert(image, job.inputFloats);
+            } else {
+                yuvConverter.Convert(image, job.input);
+            }
+            Trace.endSection(); // preprocessImage
+        } finally {
+            image.close();
+        }
+        job.timestamp = frame.getTimestamp();
+        frame.getCamera().getProjectionMatrix(job.projection, 0, FrameSnapshot.near, FrameSnapshot.far);
+    }
+
+    // Prepare is PrepareInput for a job of a PosePipeline. It is the first stage and only uses
+    // the YUV converter.
+    public void Prepare(FrameSnapshot snapshot, PoseJob job) {
+        Trace.beginSection("preprocessImage");
+        setRegion(job);
+        if (job.inputFloats != null) {
+            yuvConverter.Convert(snapshot.y, snapshot.yRowStride, snapshot.yPixelStride,
+                    snapshot.u, snapshot.v, snapshot.uvRowStride, snapshot.uvPixelStride, job.inputFloats);
+        } else {
+            yuvConverter.Convert(snapshot.y, snapshot.yRowStride, snapshot.yPixelStride,
+                    snapshot.u, snapshot.v, snapshot.uvRowStride, snapshot.uvPixelStride, job.input);
+        }
+        Trace.endSection(); // preprocessImage
+        job.timestamp = snapshot.GetTimestamp();
+        job.displayWidth = snapshot.GetDisplayWidth();
+        job.displayHeight = snapshot.GetDisplayHeight();
+        System.arraycopy(snapshot.projection, 0, job.projection, 0, job.projection.length);
+    }
+
+    // setRegion sizes the job and points the converter at the current region of interest
+    private void setRegion(PoseJob job) {
+        job.allocate(inputSize, MapHeight, backend);
+        synchronized (roiLock) {
+            job.roiActive = roiActive;
+            job.roiTop = roiTop;
+            job.roiLeft = roiLeft;
+            job.roiSize = roiSize;
+        }
+        // Model input rows are camera columns and model input columns are camera rows, flipped
+        float scale = (float) frameHeight / inputSize;
+        if (job.roiActive) {
+            yuvConverter.SetRegion(job.roiTop * scale, (inputSize - job.roiLeft - job.roiSize) * scale, job.roiSize * scale);
+        } else {
+            yuvConverter.SetRegion(0, 0, frameHeight);
+        }
+    }
+
+    // DrawInput copies the current model input into bitmap so it can be shown as an overlay. The
+    // bitmap must be inputSize x inputSize.
+    public void DrawInput(Bitmap bitmap) {
+        DrawInput(job, bitmap);
+    }
+
+    // DrawInput copies the model input of a job into bitmap. Only call it from one thread.
+    public void DrawInput(PoseJob job, Bitmap bitmap) {
+        final float[] floatInput = job.input;
+        final FloatBuffer floatBuffer = job.inputFloats;
+        for (int i = 0; i < input.length; ++i) {
+            if (floatBuffer != null) {
+                input[i] = 0xFF000000
+                        | ((int) floatBuffer.get(i * 3 + 2) << 16)
+                        | ((int) floatBuffer.get(i * 3 + 1) << 8)
+                        | (int) floatBuffer.get(i * 3);
+            } else {
+                input[i] = 0xFF000000
+                        | ((int) floatInput[i * 3 + 2] << 16)
+                        | ((int) floatInput[i * 3 + 1] << 8)
+                        | (int) floatInput[i * 3];
+            }
+        }
+        bitmap.setPixels(input, 0, inputSize, 0, 0, inputSize, inputSize);
     }
 
     public Vector<Human> FindHumans(final Bitmap bitmap) {
@@ -88,230 +248,140 @@ public class TensorFlowPoseDetector {
         Trace.beginSection("recognizeImage");
         Trace.beginSection("preprocessBitmap");
         bitmap.getPixels(input, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        job.allocate(inputSize, MapHeight, backend);
+        final float[] floatInput = job.input;
+        final FloatBuffer floatBuffer = job.inputFloats;
+        job.roiActive = false;
         for (int i = 0; i < input.length; ++i) {
-            floatInput[i * 3 + 2] = ((input[i] >> 16) & 0xFF);  // R
-            floatInput[i * 3 + 1] = ((input[i] >> 8) & 0xFF) ;  // G
-            floatInput[i * 3 + 0] = (input[i] & 0xFF);          // B
+            if (floatBuffer != null) {
+                floatBuffer.put(i * 3 + 2, (input[i] >> 16) & 0xFF);  // R
+                floatBuffer.put(i * 3 + 1, (input[i] >> 8) & 0xFF);   // G
+                floatBuffer.put(i * 3, input[i] & 0xFF);              // B
+            } else {
+                floatInput[i * 3 + 2] = ((input[i] >> 16) & 0xFF);  // R
+                floatInput[i * 3 + 1] = ((input[i] >> 8) & 0xFF) ;  // G
+                floatInput[i * 3 + 0] = (input[i] & 0xFF);          // B
+            }
         }
         Trace.endSection(); // preprocessBitmap
+        Vector<Human> humans = FindHumans();
+        Trace.endSection(); // recognizeImage
+        return humans;
+    }
 
-        // Copy the input data into TensorFlow.
-        Trace.beginSection("feed");
-        inferenceInterface.feed(inputName, floatInput, 1, inputSize, inputSize, 3);
-        Trace.endSection(); // feed
+    // FindHumans runs the model on the input prepared by PrepareInput. The returned Vector and
+    // Humans are reused by the next call.
+    public Vector<Human> FindHumans() {
+        Run(job);
+        return Decode(job);
+    }
 
+    // Run is the second stage of a PosePipeline and only uses the backend
+    public void Run(PoseJob job) {
         // Run the inference call.
         Trace.beginSection("run");
-        inferenceInterface.run(outputNames, logStats);
-        Trace.endSection();
-
-        // Copy the output Tensor back into the output array.
-        Trace.beginSection("fetch");
-        inferenceInterface.fetch(outputName, output);
-        Trace.endSection(); // fetch
+        if (job.inputBuffer != null) {
+            backend.Run(job.inputBuffer, job.output);
+        } else {
+            backend.Run(job.input, job.output);
+        }
+        Trace.endSection(); // run
+    }
 
+    // Decode is the last stage of a PosePipeline and only uses the decoder. The returned Vector
+    // and Humans are reused by the next call.
+    public Vector<Human> Decode(PoseJob job) {
         // process
-        Vector<Human> humans = processOutput();
-        Trace.endSection(); // recognizeImage
+        Trace.beginSection("decode");
+        decoder.Decode(job.output, humans);
+        Trace.endSection(); // decode
+
+        mapToFrame(job);
+        synchronized (roiLock) {
+            if (roiEnabled) {
+                updateRegionOfInterest();
+            }
+        }
         return humans;
     }
 
-    private Vector<Human> processOutput() {
-        Vector<int[]> coordinates[] = new Vector[HeatMapCount - 1];
-
-        // eliminate duplicate part recognitions
-        for (int i = 0; i < (HeatMapCount - 1); i++) {
-            coordinates[i] = new Vector<int[]>();
-            for (int j = 0; j < MapHeight; j++) {
-                for (int k = 0; k < MapWidth; k++) {
-                    int[] coordinate = {j, k};
-                    float max_value = 0;
-                    for (int dj = -(MaximumFilterSize - 1) / 2; dj < (MaximumFilterSize + 1) / 2; dj++) {
-                        if ((j + dj) >= MapHeight || (j + dj) < 0) {
-                            break;
-                        }
-                        for (int dk = -(MaximumFilterSize - 1) / 2; dk < (MaximumFilterSize + 1) / 2; dk++) {
-                            if ((k + dk) >= MapWidth || (k + dk) < 0) {
-                                break;
-                            }
-                            float value = output[(HeatMapCount + PafMapCount) * MapWidth * (j + dj) + (HeatMapCount + PafMapCount) * (k + dk) + i];
-                            if (value > max_value) {
-                                max_value = value;
-                            }
-                        }
-                    }
-                    if (max_value > NMS_Threshold) {
-                        if (max_value == output[(HeatMapCount + PafMapCount) * MapWidth * j + (HeatMapCount + PafMapCount) * k + i]) {
-                            coordinates[i].addElement(coordinate);
-                        }
-                    }
-                }
+    // mapToFrame fills in frame_coords of the humans from where the input of the job came from
+    private void mapToFrame(PoseJob job) {
+        float top = job.roiActive ? job.roiTop / inputSize : 0;
+        float left = job.roiActive ? job.roiLeft / inputSize : 0;
+        float scale = (job.roiActive ? job.roiSize / inputSize : 1) / MapHeight;
+        for (int h = 0; h < humans.size(); h++) {
+            Human human = humans.get(h);
+            for (int i = 0; i < human.parts_coords.length; i++) {
+                human.frame_coords[i][0] = top + human.parts_coords[i][0] * scale;
+                human.frame_coords[i][1] = left + human.parts_coords[i][1] * scale;
             }
         }
+    }
 
-        // eliminate duplicate connections
-        Vector<int[]> pairs[] = new Vector[MaxPairCount];
-        Vector<int[]> pairs_final[] = new Vector[MaxPairCount];
-        Vector<Float> pairs_scores[] = new Vector[MaxPairCount];
-        Vector<Float> pairs_scores_final[] = new Vector[MaxPairCount];
-        for (int i = 0; i < MaxPairCount; i++) {
-            pairs[i] = new Vector<int[]>();
-            pairs_scores[i] = new Vector<Float>();
-            pairs_final[i] = new Vector<int[]>();
-            pairs_scores_final[i] = new Vector<Float>();
-            Vector<Integer> part_set = new Vector<Integer>();
-            for (int p1 = 0; p1 < coordinates[CocoPairs[i][0]].size(); p1++) {
-                for (int p2 = 0; p2 < coordinates[CocoPairs[i][1]].size(); p2++) {
-                    int count = 0;
-                    float score = 0.0f;
-                    float scores[] = new float[10];
-                    int p1x = coordinates[CocoPairs[i][0]].get(p1)[0];
-                    int p1y = coordinates[CocoPairs[i][0]].get(p1)[1];
-                    int p2x = coordinates[CocoPairs[i][1]].get(p2)[0];
-                    int p2y = coordinates[CocoPairs[i][1]].get(p2)[1];
-                    float dx = p2x - p1x;
-                    float dy = p2y - p1y;
-                    float normVec = (float) Math.sqrt(Math.pow(dx, 2) + Math.pow(dy, 2));
-
-                    if (normVec < 0.0001f) {
-                        break;
-                    }
-                    float vx = dx / normVec;
-                    float vy = dy / normVec;
-                    for (int t = 0; t < 10; t++) {
-                        int tx = (int) ((float) p1x + (t * dx / 9) + 0.5);
-                        int ty = (int) ((float) p1y + (t * dy / 9) + 0.5);
-                        int location = tx * (HeatMapCount + PafMapCount) * MapWidth + ty * (HeatMapCount + PafMapCount) + HeatMapCount;
-                        scores[t] = vy * output[location + CocoPairsNetwork[i][0]];
-                        scores[t] += vx * output[location + CocoPairsNetwork[i][1]];
-                    }
-                    for (int h = 0; h < 10; h++) {
-                        if (scores[h] > Local_PAF_Threshold) {
-                            count += 1;
-                            score += scores[h];
-                        }
-                    }
-                    if (score > Part_Score_Threshold && count >= PAF_Count_Threshold) {
-                        boolean inserted = false;
-                        int pair[] = {p1, p2};
-                        for (int l = 0; l < pairs[i].size(); l++) {
-                            if (score > pairs_scores[i].get(l)) {
-                                pairs[i].insertElementAt(pair, l);
-                                pairs_scores[i].insertElementAt(score, l);
-                                inserted = true;
-                                break;
-                            }
-                        }
-                        if (!inserted) {
-                            pairs[i].addElement(pair);
-                            pairs_scores[i].addElement(score);
-                        }
-                    }
+    // updateRegionOfInterest moves the region onto the person being followed, which is the one
+    // closest to the current region, or the biggest one when searching the whole frame
+    private void updateRegionOfInterest() {
+        float centerRow = roiTop + roiSize / 2;
+        float centerCol = roiLeft + roiSize / 2;
+        float bestSize = 0;
+        float bestRow = 0;
+        float bestCol = 0;
+        float bestDistance = Float.MAX_VALUE;
+        boolean found = false;
+        for (int h = 0; h < humans.size(); h++) {
+            Human human = humans.get(h);
+            float minRow = Float.MAX_VALUE;
+            float maxRow = -Float.MAX_VALUE;
+            float minCol = Float.MAX_VALUE;
+            float maxCol = -Float.MAX_VALUE;
+            for (int i = 0; i < human.frame_coords.length; i++) {
+                if (!human.coords_index_assigned[i]) {
+                    continue;
                 }
+                minRow = Math.min(minRow, human.frame_coords[i][0] * inputSize);
+                maxRow = Math.max(maxRow, human.frame_coords[i][0] * inputSize);
+                minCol = Math.min(minCol, human.frame_coords[i][1] * inputSize);
+                maxCol = Math.max(maxCol, human.frame_coords[i][1] * inputSize);
             }
-            for (int m = 0; m < pairs[i].size(); m++) {
-                boolean conflict = false;
-                for (int n = 0; n < part_set.size(); n++) {
-                    if (pairs[i].get(m)[0] == part_set.get(n) || pairs[i].get(m)[1] == part_set.get(n)) {
-                        conflict = true;
-                        break;
-                    }
-                }
-                if (!conflict) {
-                    pairs_final[i].addElement(pairs[i].get(m));
-                    pairs_scores_final[i].addElement(pairs_scores[i].get(m));
-                    part_set.addElement(pairs[i].get(m)[0]);
-                    part_set.addElement(pairs[i].get(m)[1]);
-                }
+            float size = Math.max(maxRow - minRow, maxCol - minCol);
+            float row = (minRow + maxRow) / 2;
+            float col = (minCol + maxCol) / 2;
+            float distance = (row - centerRow) * (row - centerRow) + (col - centerCol) * (col - centerCol);
+            if (roiActive ? distance < bestDistance : size > bestSize) {
+                bestDistance = distance;
+                bestSize = size;
+                bestRow = row;
+                bestCol = col;
+                found = true;
             }
         }
 
-        Vector<Human> humans = new Vector<Human>();
-        Vector<Human> humans_final = new Vector<Human>();
-        for (int i = 0; i < MaxPairCount; i++) {
-            for (int j = 0; j < pairs_final[i].size(); j++) {
-                boolean merged = false;
-                int p1 = CocoPairs[i][0];
-                int p2 = CocoPairs[i][1];
-                int ip1 = pairs_final[i].get(j)[0];
-                int ip2 = pairs_final[i].get(j)[1];
-                for (int k = 0; k < humans.size(); k++) {
-                    Human human = humans.get(k);
-                    if ((ip1 == human.coords_index_set[p1] && human.coords_index_assigned[p1]) || (ip2 == human.coords_index_set[p2] && human.coords_index_assigned[p2])) {
-                        human.parts_coords[p1] = coordinates[p1].get(ip1);
-                        human.parts_coords[p2] = coordinates[p2].get(ip2);
-                        human.coords_index_set[p1] = ip1;
-                        human.coords_index_set[p2] = ip2;
-                        human.coords_index_assigned[p1] = true;
-                        human.coords_index_assigned[p2] = true;
-                        merged = true;
-                        break;
-                    }
-                }
-                if (!merged) {
-                    Human human = new Human();
-                    human.parts_coords[p1] = coordinates[p1].get(ip1);
-                    human.parts_coords[p2] = coordinates[p2].get(ip2);
-                    human.coords_index_set[p1] = ip1;
-                    human.coords_index_set[p2] = ip2;
-                    human.coords_index_assigned[p1] = true;
-                    human.coords_index_assigned[p2] = true;
-                    humans.addElement(human);
-                }
+        if (!found) {
+            roiMisses++;
+            if (roiMisses > roiMaxMisses) {
+                roiActive = false;
             }
+            return;
         }
-
-        // remove people with too few parts
-        for (int i = 0; i < humans.size(); i++) {
-            int human_part_count = 0;
-            for (int j = 0; j < HeatMapCount - 1; j++) {
-                if (humans.get(i).coords_index_assigned[j]) {
-                    human_part_count += 1;
-                }
-            }
-            if (human_part_count > Part_Count_Threshold) {
-                humans_final.addElement(humans.get(i));
-            }
+        roiMisses = 0;
+
+        float size = Math.min(Math.max(bestSize * roiPadding, roiMinSize * inputSize), inputSize);
+        float top = Math.min(Math.max(bestRow - size / 2, 0), inputSize - size);
+        float left = Math.min(Math.max(bestCol - size / 2, 0), inputSize - size);
+        if (roiActive) {
+            top = roiTop + (top - roiTop) * roiSmoothing;
+            left = roiLeft + (left - roiLeft) * roiSmoothing;
+            size = roiSize + (size - roiSize) * roiSmoothing;
         }
-        return humans_final;
-    }
-
-    private static Bitmap imageToBitmap(Image image){
-        byte[] byteArray = null;
-        byteArray = NV21toJPEG(YUV420toNV21(image),image.getWidth(),image.getHeight(),100);
-        return BitmapFactory.decodeByteArray(byteArray,0,byteArray.length);
-    }
-
-    private static byte[] NV21toJPEG(byte[] nv21, int width, int height, int quality) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        YuvImage yuv = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
-        yuv.compressToJpeg(new Rect(0, 0, width, height), quality, out);
-        return out.toByteArray();
-    }
-
-    private static byte[] YUV420toNV21(Image image) {
-        byte[] nv21;
-        // Get the three planes.
-        ByteBuffer yBuffer = image.getPlanes()[0].getBuffer();
-        ByteBuffer uBuffer = image.getPlanes()[1].getBuffer();
-        ByteBuffer vBuffer = image.getPlanes()[2].getBuffer();
-
-        int ySize = yBuffer.remaining();
-        int uSize = uBuffer.remaining();
-        int vSize = vBuffer.remaining();
-
-
-        nv21 = new byte[ySize + uSize + vSize];
-
-        //U and V are swapped
-        yBuffer.get(nv21, 0, ySize);
-        vBuffer.get(nv21, ySize, vSize);
-        uBuffer.get(nv21, ySize + vSize, uSize);
-
-        return nv21;
+        roiTop = top;
+        roiLeft = left;
+        roiSize = size;
+        roiActive = true;
     }
 
     public void close() {
-        inferenceInterface.close();
+        decoder.Close();
+        backend.Close();
     }
 }
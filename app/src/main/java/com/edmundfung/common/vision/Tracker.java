@@ -2,14 +2,11 @@ package com.edmundfung.common.vision;
 
 import android.app.Activity;
 import android.content.res.AssetManager;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.media.Image;
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.widget.FrameLayout;
@@ -38,6 +35,7 @@ import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -47,6 +45,8 @@ import java.util.Vector;
 
 public class Tracker {
     private static final String TAG = Tracker.class.getSimpleName();
+    // logDetections logs every person found and every hit test of their feet
+    private static final boolean logDetections = false;
     private static final float closenessThreshold = 0.2f;
 
     private Activity activity;
@@ -54,27 +54,85 @@ public class Tracker {
     private final SnackbarHelper snackbar = new SnackbarHelper();
 
     private Session session;
-    private final List<ColoredAnchor> anchors = new ArrayList<>();
-    private static final int anchorCapacity = 20;
+    // Waypoints are poses relative to a few shared reference anchors, so there can be many
+    private static final int anchorCapacity = 64;
+    private static final int referenceCapacity = 8;
+    private final ReferenceAnchors references = new ReferenceAnchors(referenceCapacity);
+    // Waypoints are only changed on the GL thread. Other threads read them through Snapshot.
+    private final AnchorQueue anchors = new AnchorQueue(anchorCapacity);
+    // Detections within mergeRadius meters of a waypoint update that waypoint instead of adding
+    // one. The grid finds the waypoint without going through all of them.
+    private static final float defaultMergeRadius = 0.25f;
+    private float mergeRadius = defaultMergeRadius;
+    private final WaypointGrid waypointGrid = new WaypointGrid(anchorCapacity, defaultMergeRadius);
+    // a waypoint averages at most this many detections so it can still follow a slow drift
+    private static final int maxMergeWeight = 8;
+    // A new waypoint replaces the last one when the path can go straight past it without any
+    // dropped waypoint being further than pathTolerance meters from it
+    private static final float defaultPathTolerance = 0.15f;
+    private final PathSimplifier pathSimplifier = new PathSimplifier(defaultPathTolerance);
     private Frame frame;
     private boolean installRequested;
     private boolean isMoving = false;
 
     // tensorflow
     private final TensorFlowPoseDetector poseDetector;
-    private boolean computingDetection = false;
-    private Handler handler;
-    private HandlerThread handlerThread;
+    private final PosePipeline posePipeline;
+    // frames go to the pose pipeline through here so the inference threads never touch a Frame
+    private final FrameExchange frameExchange = new FrameExchange();
+    private int displayRotation;
+    private int displayWidth;
+    private int displayHeight;
+    // people found go back to the GL thread as hit tests against the pose their image was taken at
+    private final HitQueue hitQueue = new HitQueue(8);
+    // hits from images older than this many nanoseconds are not used
+    private static final long maxHitAge = 500000000L;
+    // only written on the GL thread, volatile so other threads never read half a long
+    private volatile long staleHits = 0;
+    private volatile long rejectedHits = 0;
+    // camera poses of recent frames, enough to cover maxHitAge at 60 frames a second
+    private final PoseHistory poseHistory = new PoseHistory(32);
+    private final float[] worldRay = new float[6];
+    // System.nanoTime when the frame of the latest accepted detection was recorded
+    private long detectionTime = 0;
+    // smooths where the person stands between detections, lost after targetMaxAge nanoseconds
+    private static final long targetMaxAge = 2000000000L;
+    private final TargetFilter targetFilter = new TargetFilter(0.15f, 1f, targetMaxAge);
+    private final float[] prediction = new float[4];
+    // kept so finding blobs reuses its buffers from frame to frame
+    private final BlobFinder blobFinder = new BlobFinder();
+    // state published every frame for the robot control, which runs on its own thread
+    private final TripleBuffer<TrackerState> states =
+            new TripleBuffer<>(new TrackerState(), new TrackerState(), new TrackerState());
     private ImageView trackingOverlay;
-    private Bitmap copyBitmap;
+    // The pose overlay is drawn on the decode thread and shown on the UI thread, see PoseOverlay
+    private final TripleBuffer<PoseOverlay> overlays =
+            new TripleBuffer<>(new PoseOverlay(), new PoseOverlay(), new PoseOverlay());
+    private final Runnable showOverlay = new Runnable() {
+        @Override
+        public void run() {
+            PoseOverlay overlay = overlays.TakeFresh();
+            if (overlay != null) {
+                trackingOverlay.setImageBitmap(overlay.bitmap);
+            }
+        }
+    };
+    // paints for the overlay, only used on the decode thread
+    private final Paint posePaint = new Paint();
+    private final Paint footPaint = new Paint();
     private static final int actualBitmapSize = 1439;
     private static final int bitmapHorzOffset = (int) Math.rint((actualBitmapSize - 1080) / 2.0);
+    // findStanding only looks at the knees and ankles
+    private static final int[] legParts = {9, 10, 12, 13};
 
 
     public Tracker(Activity a, final AssetManager assetManager) {
         activity = a;
         installRequested = false;
         poseDetector = new TensorFlowPoseDetector(assetManager);
+        poseDetector.SetRequiredParts(legParts);
+        poseDetector.SetRegionOfInterest(true);
+        posePipeline = new PosePipeline(poseDetector, frameExchange, onHumans);
 
         FrameLayout root = (FrameLayout)a.findViewById(R.id.root);
         ImageView img = new ImageView(a.getBaseContext());
@@ -85,6 +143,12 @@ public class Tracker {
         params.topMargin  = 0;
         root.addView(img, params);
         trackingOverlay = img;
+        posePaint.setColor(Color.RED);
+        posePaint.setStyle(Paint.Style.STROKE);
+        posePaint.setStrokeWidth(2.0f);
+        footPaint.setColor(Color.BLUE);
+        footPaint.setStyle(Paint.Style.STROKE);
+        footPaint.setStrokeWidth(3.0f);
         trackingOverlay.setImageAlpha(80);
     }
 
@@ -92,10 +156,68 @@ public class Tracker {
         tapHelper = th;
     }
 
+    // SetPoseBackend switches what runs the pose model. The switch happens once the frames being
+    // detected are done.
+    public void SetPoseBackend(final TensorFlowPoseDetector.Backend backend, final int threads) {
+        posePipeline.Post(
+            new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        poseDetector.SetBackend(backend, threads);
+                    } catch (IOException | IllegalArgumentException e) {
+                        Log.e(TAG, "Failed to switch pose backend to " + backend, e);
+                        snackbar.showError(activity, "Could not load the " + backend + " pose model");
+                    }
+                }
+            }
+        );
+    }
+
+    // SetInputSize changes the resolution the pose model runs at. Like SetPoseBackend it is applied
+    // between two detections.
+    public void SetInputSize(final int size) {
+        posePipeline.Post(
+            new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        poseDetector.SetInputSize(size);
+                    } catch (IllegalArgumentException e) {
+                        Log.e(TAG, "Failed to switch pose input size to " + size, e);
+                        snackbar.showError(activity, "The pose model cannot run at " + size + "px");
+                    }
+                }
+            }
+        );
+    }
+
+    // GetPoseLatency returns the smoothed time in milliseconds frames spend in a stage of the pose
+    // pipeline, see PosePipeline.StagePrepare, StageRun and StageDecode
+    public float GetPoseLatency(int stage) {
+        return posePipeline.GetLatency(stage);
+    }
+
+    // GetStaleHits returns how many people found were not hit tested because their image was too
+    // old by the time the GL thread got to them
+    public long GetStaleHits() {
+        return staleHits + hitQueue.GetDropped();
+    }
+
+    // GetRejectedHits returns how many people found were hit tested but not on a plane, or could
+    // not be hit tested because there was no display geometry to cast their ray with
+    public long GetRejectedHits() {
+        return rejectedHits + hitQueue.GetRejected();
+    }
+
+    // GetDroppedFrames returns how many camera frames were replaced by a newer one before the pose
+    // pipeline got to them
+    public long GetDroppedFrames() {
+        return frameExchange.GetDroppedFrames();
+    }
+
     public void Resume(){
-        handlerThread = new HandlerThread("inference");
-        handlerThread.start();
-        handler = new Handler(handlerThread.getLooper());
+        posePipeline.Start();
 
         if (session == null) {
             Exception exception = null;
@@ -158,14 +280,7 @@ public class Tracker {
     }
 
     public void Pause() {
-        handlerThread.quitSafely();
-        try {
-            handlerThread.join();
-            handlerThread = null;
-            handler = null;
-        } catch (final InterruptedException e) {
-            // oops
-        }
+        posePipeline.Stop();
 
         session.pause();
     }
@@ -180,6 +295,9 @@ public class Tracker {
 
     public void SetDisplayGeometry(int rotation, int width, int height) {
         session.setDisplayGeometry(rotation, width, height);
+        displayRotation = rotation;
+        displayWidth = width;
+        displayHeight = height;
     }
 
     public void SetCameraTextureName(int id){
@@ -193,60 +311,67 @@ public class Tracker {
     public void Track() throws NoSuchElementException {
         removeNextAnchorIfClose(frame.getCamera().getPose());
 
-        if (anchorCapacityFull() || !IsTracking()) {
-            return;
+        if (IsTracking()) {
+            poseHistory.Record(frame.getTimestamp(), frame.getCamera().getDisplayOrientedPose());
+            runHitTests();
+            if (!anchorCapacityFull()) {
+                findPeople();
+            }
         }
+        publishState();
+    }
 
-        activity.runOnUiThread(
-            new Runnable() {
-                @Override
-                public void run() {
-                    trackingOverlay.setImageBitmap(copyBitmap);
-                }
-            }
-        );
+    // GetState returns the state of the tracker at the latest frame. Only one thread may call it;
+    // the returned state stays the same until the next call.
+    public TrackerState GetState() {
+        return states.Take();
+    }
 
-        if (computingDetection) {
-            return;
+    private void publishState() {
+        TrackerState state = states.Back();
+        state.timestamp = frame.getTimestamp();
+        state.moving = isMoving;
+        state.tracking = IsTracking();
+        state.anchorCount = anchors.Size();
+        state.detectionTime = detectionTime;
+        state.nextScore = GetNextScore();
+        state.distanceToNextAnchor = DistanceToNextAnchor();
+        state.angleToNextAnchor = AngleToNextAnchor();
+        Pose camera = frame.getCamera().getPose();
+        state.publishedAt = System.nanoTime();
+        state.cameraX = camera.tx();
+        state.cameraZ = camera.tz();
+        state.cameraAngle = quaternionToAngleY(camera);
+        state.hasTarget = targetFilter.Predict(frame.getTimestamp(), prediction);
+        if (state.hasTarget) {
+            state.targetX = prediction[0];
+            state.targetZ = prediction[1];
+            state.targetVelocityX = prediction[2];
+            state.targetVelocityZ = prediction[3];
+        }
+        states.Publish();
+    }
+
+    // findPeople shows the last pose overlay and hands this frame to the pose pipeline
+    private void findPeople() {
+        if (overlays.HasFresh()) {
+            activity.runOnUiThread(showOverlay);
+        }
+
+        // Publish a copy of this frame for the pose pipeline. It only ever works on the newest one.
+        try {
+            frameExchange.Back().Set(frame, displayRotation, displayWidth, displayHeight);
+            frameExchange.Publish();
+        } catch (NotYetAvailableException | DeadlineExceededException e) {
+            // no camera image for this frame
         }
-        computingDetection = true;
-        runInBackground(
-            new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        Bitmap bitmap = poseDetector.GetBitmap(frame);
-                        if(bitmap == null) {
-                            return;
-                        }
-                        Vector<Human> humans = poseDetector.FindHumans(bitmap);
-                        Log.e("EDMUND tensorflow human count", String.valueOf(humans.size()));
-
-                        copyBitmap = Bitmap.createBitmap(bitmap);
-                        final Canvas canvas = new Canvas(copyBitmap);
-                        final Paint paint = new Paint();
-                        paint.setColor(Color.RED);
-                        paint.setStyle(Paint.Style.STROKE);
-                        paint.setStrokeWidth(2.0f);
-                        for (final Human human : humans) {
-                            drawAllPoints(canvas, paint, human);
-                            drawAllConnections(canvas, paint, human);
-                        }
-                        findStanding(canvas, humans);
-                    } catch(NotYetAvailableException | DeadlineExceededException e) {
-                        // haha...
-                    }
-                    computingDetection = false;
-                }
-            }
-        );
 
 //        if(checkTaps() || (System.nanoTime() > nextTrackTime && isMoving)) {
 //            try {
 //                ArrayList<Float> blobData = getBlob(frame);
 //                for (HitResult hit : frame.hitTest(blobData.get(0), blobData.get(1))) {
 //                    if (checkHit(hit)){
-//                        addAnchor(hit.createAnchor(), blobData.get(2));
+//                        addWaypoint(hit.getHitPose(), hit.getTrackable(), blobData.get(2));
 //                        break;
 //                    }
 //                }
@@ -269,21 +394,43 @@ public class Tracker {
     }
 
     public float DistanceToNextAnchor() {
-        if (anchors.isEmpty() || frame == null || frame.getCamera() == null){
+        if (anchors.IsEmpty() || frame == null || frame.getCamera() == null){
             return 0.0f;
         }
-        return distanceBetweenPoses(anchors.get(0).anchor.getPose(), frame.getCamera().getPose());
+        return distanceBetweenPoses(anchors.Peek().GetPose(), frame.getCamera().getPose());
+    }
+
+    // SetMergeRadius sets how close in meters a detection has to be to a waypoint to be merged into
+    // it. Call it from the GL thread.
+    public void SetMergeRadius(float radius) throws IllegalArgumentException {
+        waypointGrid.SetCellSize(radius);
+        mergeRadius = radius;
+        for (int i = 0; i < anchors.Size(); i++) {
+            waypointGrid.Add(anchors.Get(i));
+        }
+    }
+
+    // SetPathTolerance sets how far in meters a dropped detection may be from the simplified path.
+    // Call it from the GL thread.
+    public void SetPathTolerance(float tolerance) throws IllegalArgumentException {
+        pathSimplifier.SetTolerance(tolerance);
     }
 
-    public List<ColoredAnchor> GetAnchors() {
-        return anchors;
+    public int GetAnchorCapacity() {
+        return anchorCapacity;
+    }
+
+    // GetAnchors copies the waypoints, next one first, into out and returns how many there are.
+    // out must hold GetAnchorCapacity anchors.
+    public int GetAnchors(ColoredAnchor[] out) {
+        return anchors.Snapshot(out);
     }
 
     public double AngleToNextAnchor() {
-        if (anchors.isEmpty()) {
+        if (anchors.IsEmpty()) {
             return 0f;
         }
-        Pose anchor = anchors.get(0).anchor.getPose();
+        Pose anchor = anchors.Peek().GetPose();
         Pose camera = frame.getCamera().getPose();
 
         // NOTE:
@@ -305,25 +452,40 @@ public class Tracker {
         return angle;
     }
 
-    protected synchronized void runInBackground(final Runnable r) {
-        if (handler != null) {
-            handler.post(r);
+    // onHumans draws the overlay and looks for where people stand. It runs on the decode thread of
+    // the pose pipeline.
+    private final PosePipeline.Listener onHumans = new PosePipeline.Listener() {
+        @Override
+        public void OnHumans(PoseJob job, Vector<Human> humans) {
+            if (logDetections) {
+                Log.d(TAG, "human count " + humans.size());
+            }
+
+            PoseOverlay overlay = overlays.Back();
+            overlay.Fit(job.GetInputSize());
+            poseDetector.DrawInput(job, overlay.bitmap);
+            for (final Human human : humans) {
+                drawAllPoints(overlay.canvas, posePaint, human);
+                drawAllConnections(overlay.canvas, posePaint, human);
+            }
+            findStanding(overlay.canvas, job, humans);
+            overlays.Publish();
         }
-    }
+    };
 
-    private void findStanding(Canvas canvas, Vector<Human> humans){
-        int scaleFactor = 8;
+    // findStanding queues a hit test below the feet of everyone whose legs were found in job
+    private void findStanding(Canvas canvas, PoseJob job, Vector<Human> humans){
         for (Human human : humans) {
             if (human.coords_index_assigned[9] && human.coords_index_assigned[10] && human.coords_index_assigned[12] && human.coords_index_assigned[13]) {
                 // also scale coords to real size
-                int rightAnkleY = (human.parts_coords[10][0] * scaleFactor * actualBitmapSize) / 368;
-                int rightAnkleX = (human.parts_coords[10][1] * scaleFactor * actualBitmapSize) / 368;
-                int rightKneeY = (human.parts_coords[9][0] * scaleFactor * actualBitmapSize) / 368;
-                int rightKneeX = (human.parts_coords[9][1] * scaleFactor * actualBitmapSize) / 368;
-                int leftAnkleY = (human.parts_coords[13][0] * scaleFactor * actualBitmapSize) / 368;
-                int leftAnkleX = (human.parts_coords[13][1] * scaleFactor * actualBitmapSize) / 368;
-                int leftKneeY = (human.parts_coords[12][0] * scaleFactor * actualBitmapSize) / 368;
-                int leftKneeX = (human.parts_coords[12][1] * scaleFactor * actualBitmapSize) / 368;
+                int rightAnkleY = (int) (human.frame_coords[10][0] * actualBitmapSize);
+                int rightAnkleX = (int) (human.frame_coords[10][1] * actualBitmapSize);
+                int rightKneeY = (int) (human.frame_coords[9][0] * actualBitmapSize);
+                int rightKneeX = (int) (human.frame_coords[9][1] * actualBitmapSize);
+                int leftAnkleY = (int) (human.frame_coords[13][0] * actualBitmapSize);
+                int leftAnkleX = (int) (human.frame_coords[13][1] * actualBitmapSize);
+                int leftKneeY = (int) (human.frame_coords[12][0] * actualBitmapSize);
+                int leftKneeX = (int) (human.frame_coords[12][1] * actualBitmapSize);
                 int middleX = (rightAnkleX + leftAnkleX) / 2;
                 int middleY = rightAnkleY;
                 int legLength = (int) distanceBetweenPoints(rightAnkleX, rightAnkleY, rightKneeX, rightKneeY);
@@ -337,32 +499,72 @@ public class Tracker {
                 // Account for feet location from ankle location and lower leg height
                 middleY = middleY + (int) (legLength * 0.15);
 
-                final Paint paint = new Paint();
-                paint.setColor(Color.BLUE);
-                paint.setStyle(Paint.Style.STROKE);
-                paint.setStrokeWidth(3.0f);
-                canvas.drawCircle((middleX + bitmapHorzOffset) * (float) (368.0 / actualBitmapSize), middleY * (float) (368.0 /  actualBitmapSize), 2, paint);
-
-                // (X is 1080 and Y is 1920)
-                Log.e("EDMUND tensorflow human coordinates", String.format("x: %d y: %d leg: %d offset: %d", middleX, middleY, legLength, (int) (legLength * 0.15)));
-                for (HitResult hit : frame.hitTest(middleX, middleY)) {
-                    if (checkHit(hit)){
-                        addAnchor(hit.createAnchor(), 0f);
-                        Log.e("EDMUND tensorflow human", "HIT");
-                        break;
-                    }
-                    Log.e("EDMUND tensorflow human miss plane", "");
+                // The overlay shows the model input, which is only the region of interest when
+                // one is active, so go from the full frame to its pixels
+                final float inputScale = (float) job.GetInputSize() / actualBitmapSize;
+                float footX = (middleX + bitmapHorzOffset) * inputScale;
+                float footY = middleY * inputScale;
+                if (job.roiActive) {
+                    final float roiScale = job.GetInputSize() / job.roiSize;
+                    footX = (footX - job.roiLeft) * roiScale;
+                    footY = (footY - job.roiTop) * roiScale;
+                }
+                canvas.drawCircle(footX, footY, 2, footPaint);
+
+                if (logDetections) {
+                    // (X is 1080 and Y is 1920)
+                    Log.d(TAG, String.format("human at x: %d y: %d leg: %d offset: %d", middleX, middleY, legLength, (int) (legLength * 0.15)));
                 }
+                hitQueue.Offer(job, middleX, middleY);
             }
         }
     }
 
+    // runHitTests hit tests the people found since the last frame. Each one is a ray from where the
+    // camera was when its image was taken, looked up in the pose history, so it lands in the right
+    // place even after the camera moved.
+    private void runHitTests() {
+        long now = frame.getTimestamp();
+        HitQueue.HitRequest request;
+        while ((request = hitQueue.Peek()) != null) {
+            Pose cameraPose = poseHistory.GetPose(request.GetTimestamp());
+            if (now - request.GetTimestamp() > maxHitAge || cameraPose == null) {
+                staleHits++;
+            } else if (!hitTest(request, cameraPose)) {
+                rejectedHits++;
+            }
+            hitQueue.Release();
+        }
+    }
+
+    private boolean hitTest(HitQueue.HitRequest request, Pose cameraPose) {
+        final float[] ray = request.GetRay();
+        cameraPose.transformPoint(ray, 0, worldRay, 0);
+        cameraPose.rotateVector(ray, 3, worldRay, 3);
+        for (HitResult hit : frame.hitTest(worldRay, 0, worldRay, 3)) {
+            if (checkHit(hit, cameraPose)){
+                Pose pose = hit.getHitPose();
+                targetFilter.Update(request.GetTimestamp(), pose.tx(), pose.tz());
+                detectionTime = poseHistory.GetRecordedAt(request.GetTimestamp());
+                addWaypoint(pose, hit.getTrackable(), 0f);
+                if (logDetections) {
+                    Log.d(TAG, "human hit");
+                }
+                return true;
+            }
+            if (logDetections) {
+                Log.d(TAG, "human missed the plane");
+            }
+        }
+        return false;
+    }
+
     private static final int meterLength = 104;
     private static final int fov = 40;
     private static final char blank = '-';
     private static final char target = ':';
     public String GetDirectionMeter() {
-        if (anchors.isEmpty()) {
+        if (anchors.IsEmpty()) {
             return "";
         }
 
@@ -413,8 +615,8 @@ public class Tracker {
     }
 
     public float GetNextScore() {
-        if (!anchors.isEmpty()) {
-            return anchors.get(0).score;
+        if (!anchors.IsEmpty()) {
+            return anchors.Peek().score;
         }
         return 0f;
     }
@@ -429,9 +631,8 @@ public class Tracker {
         if (tapHelper.pollSingle() != null){
             Log.d("EDMUND", "single");
             if (isMoving) {
-                if (!anchors.isEmpty()){
-                    anchors.get(0).anchor.detach();
-                    anchors.remove(0);
+                if (!anchors.IsEmpty()){
+                    removeNextWaypoint();
                 }
             } else {
                 return true;
@@ -440,25 +641,36 @@ public class Tracker {
         if (tapHelper.pollLong() != null){
             Log.d("EDMUND", "long");
             if (!isMoving) {
-                anchors.clear();
+                while (!anchors.IsEmpty()) {
+                    removeNextWaypoint();
+                }
             }
         }
         return false;
     }
 
     private void removeNextAnchorIfClose(Pose currentPose) {
-        if (!anchors.isEmpty() && isAnchorClose(anchors.get(0).anchor, currentPose)) {
-            anchors.get(0).anchor.detach();
-            anchors.remove(0);
+        if (!anchors.IsEmpty() && isAnchorClose(anchors.Peek(), currentPose)) {
+            removeNextWaypoint();
+        }
+    }
+
+    private void removeNextWaypoint() {
+        ColoredAnchor waypoint = anchors.Poll();
+        waypointGrid.Remove(waypoint);
+        references.Release(waypoint.anchor);
+        if (anchors.IsEmpty()) {
+            pathSimplifier.Reset();
         }
     }
 
-    private boolean isAnchorClose(Anchor a, Pose p) {
-        return distanceBetweenPoses(a.getPose(), p) < closenessThreshold;
+    private boolean isAnchorClose(ColoredAnchor a, Pose p) {
+        return distanceBetweenPoses(a.GetPose(), p) < closenessThreshold;
     }
 
     private ArrayList<Float> getBlob(Frame f) throws NotYetAvailableException, NoSuchElementException {
-        BlobFinder bf = new BlobFinder(f);
+        BlobFinder bf = blobFinder;
+        bf.Update(f);
         List<Blob> blobs = bf.Find();
         Blob biggestBlob = Collections.max(blobs);
         ArrayList<Float> results = bf.ScaleCoordsToScreen(biggestBlob.GetCenter()[0], biggestBlob.GetCenter()[1]);
@@ -468,24 +680,95 @@ public class Tracker {
 
     // checkHit ensures that the hit was on a plane
     private boolean checkHit(HitResult hit) {
+        return checkHit(hit, frame.getCamera().getPose());
+    }
+
+    // checkHit ensures that the hit was on a plane facing a camera at cameraPose
+    private boolean checkHit(HitResult hit, Pose cameraPose) {
         Trackable trackable = hit.getTrackable();
         return trackable instanceof Plane
                 && ((Plane) trackable).isPoseInPolygon(hit.getHitPose())
-                && (PlaneRenderer.calculateDistanceToPlane(hit.getHitPose(), frame.getCamera().getPose()) > 0);
+                && (PlaneRenderer.calculateDistanceToPlane(hit.getHitPose(), cameraPose) > 0);
     }
 
     private boolean anchorCapacityFull(){
-        return anchors.size() >= anchorCapacity;
-    }
-
-    private void addAnchor(Anchor a, float s){
-        if (anchorCapacityFull()) {
+        return anchors.IsFull();
+    }
+
+    // addWaypoint merges a detection at pose on plane into the waypoint within mergeRadius of it,
+    // or moves the last waypoint there when the path stays close enough to the dropped one, or
+    // adds a new waypoint there relative to the reference anchor of the plane
+    private void addWaypoint(Pose pose, Trackable plane, float s){
+        ColoredAnchor near = waypointGrid.Nearest(pose.tx(), pose.ty(), pose.tz(), mergeRadius);
+        if (near != null) {
+            mergeWaypoint(near, pose, s);
+            if (near == anchors.PeekLast()) {
+                reseedPath();
+            }
+            return;
+        }
+        if (!anchors.IsEmpty() && pathSimplifier.CanReplace(pose.tx(), pose.tz())) {
+            pathSimplifier.Replace(pose.tx(), pose.tz());
+            moveWaypoint(anchors.PeekLast(), pose, plane, s);
             return;
         }
-        if (anchors.size() != 0 && distanceBetweenPoses(anchors.get(anchors.size() - 1).anchor.getPose(), a.getPose()) < .005) {
+        if (anchorCapacityFull()) {
             return;
         }
-        anchors.add(new ColoredAnchor(a, s));
+        pathSimplifier.Append(pose.tx(), pose.tz());
+        Anchor reference = references.Acquire(plane, pose);
+        ColoredAnchor waypoint = new ColoredAnchor(reference, s);
+        waypoint.local = reference.getPose().inverse().compose(pose);
+        waypoint.position[0] = pose.tx();
+        waypoint.position[1] = pose.ty();
+        waypoint.position[2] = pose.tz();
+        anchors.Add(waypoint);
+        waypointGrid.Add(waypoint);
+    }
+
+    // reseedPath restarts the path simplifier from the last two waypoints after the last one was
+    // moved by a merge, so the headings it allows start from where the path really is now
+    private void reseedPath() {
+        pathSimplifier.Reset();
+        int size = anchors.Size();
+        if (size > 1) {
+            float[] prev = anchors.Get(size - 2).position;
+            pathSimplifier.Append(prev[0], prev[2]);
+        }
+        float[] tail = anchors.PeekLast().position;
+        pathSimplifier.Append(tail[0], tail[2]);
+    }
+
+    // moveWaypoint puts waypoint at pose on plane as if it was a new detection
+    private void moveWaypoint(ColoredAnchor waypoint, Pose pose, Trackable plane, float s) {
+        waypointGrid.Remove(waypoint);
+        Anchor reference = references.Acquire(plane, pose);
+        references.Release(waypoint.anchor);
+        waypoint.anchor = reference;
+        waypoint.local = reference.getPose().inverse().compose(pose);
+        waypoint.position[0] = pose.tx();
+        waypoint.position[1] = pose.ty();
+        waypoint.position[2] = pose.tz();
+        waypoint.merges = 1;
+        waypoint.score = s;
+        waypointGrid.Add(waypoint);
+    }
+
+    // mergeWaypoint moves waypoint to the running average of its detections. The average starts
+    // from where the waypoint is now, so corrections ARCore made to its reference anchor are kept.
+    private void mergeWaypoint(ColoredAnchor waypoint, Pose pose, float s) {
+        waypointGrid.Remove(waypoint);
+        waypoint.merges = Math.min(waypoint.merges + 1, maxMergeWeight);
+        float weight = 1f / waypoint.merges;
+        float[] p = waypoint.position;
+        waypoint.GetPose().getTranslation(p, 0);
+        p[0] += (pose.tx() - p[0]) * weight;
+        p[1] += (pose.ty() - p[1]) * weight;
+        p[2] += (pose.tz() - p[2]) * weight;
+        waypoint.score += (s - waypoint.score) * weight;
+        waypointGrid.Add(waypoint);
+        Pose average = Pose.makeTranslation(p[0], p[1], p[2]).compose(pose.extractRotation());
+        waypoint.local = waypoint.anchor.getPose().inverse().compose(average);
     }
 
     // quaternionToAngleY takes a pose and returns the angle from origin in the qy direction
@@ -558,7 +841,7 @@ public class Tracker {
         drawConnection(canvas, paint, human, 8,11);
     }
 
-    private final int drawScale = 8;
+    private final int drawScale = TensorFlowPoseDetector.Stride;
     private void drawConnection(Canvas canvas, Paint paint, Human human, int a, int b) {
         if (human.coords_index_assigned[a] && human.coords_index_assigned[b]) {
             canvas.drawLine((float) human.parts_coords[a][1]*drawScale, (float) human.parts_coords[a][0]*drawScale, (float) human.parts_coords[b][1]*drawScale, (float) human.parts_coords[b][0]*drawScale, paint);
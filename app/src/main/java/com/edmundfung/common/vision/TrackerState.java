@@ -0,0 +1,90 @@
+package com.edmundfung.common.vision;
+
+// TrackerState is what driving the robot needs to know about the tracker at one frame. Tracker
+// fills one on the GL thread every frame and publishes it as a whole, see Tracker.GetState.
+public class TrackerState {
+    long timestamp;
+    boolean moving;
+    boolean tracking;
+    int anchorCount;
+    float nextScore;
+    float distanceToNextAnchor;
+    double angleToNextAnchor;
+    long detectionTime;
+    // System.nanoTime when the state was published, the target is predicted from there
+    long publishedAt;
+    float cameraX;
+    float cameraZ;
+    double cameraAngle;
+    boolean hasTarget;
+    float targetX;
+    float targetZ;
+    float targetVelocityX;
+    float targetVelocityZ;
+
+    // GetTimestamp returns Frame.getTimestamp of the frame the state is from
+    public long GetTimestamp() {
+        return timestamp;
+    }
+
+    public boolean IsMoving() {
+        return moving;
+    }
+
+    public boolean IsTracking() {
+        return tracking;
+    }
+
+    // GetDetectionTime returns the System.nanoTime when the frame of the latest person found reached
+    // the tracker, or 0 when nobody was found yet
+    public long GetDetectionTime() {
+        return detectionTime;
+    }
+
+    public int GetAnchorCount() {
+        return anchorCount;
+    }
+
+    public float GetNextScore() {
+        return nextScore;
+    }
+
+    public float GetDistanceToNextAnchor() {
+        return distanceToNextAnchor;
+    }
+
+    public double GetAngleToNextAnchor() {
+        return angleToNextAnchor;
+    }
+
+    // HasTarget returns true when the person being followed was seen recently enough to predict
+    // where they are
+    public boolean HasTarget() {
+        return hasTarget;
+    }
+
+    // GetDistanceToTarget returns how far in meters along the floor the camera is from where the
+    // target is predicted to be at now, a System.nanoTime
+    public float GetDistanceToTarget(long now) {
+        float dt = (now - publishedAt) / 1e9f;
+        float dx = targetX + targetVelocityX * dt - cameraX;
+        float dz = targetZ + targetVelocityZ * dt - cameraZ;
+        return (float) Math.sqrt(dx * dx + dz * dz);
+    }
+
+    // GetAngleToTarget returns the angle in degrees from where the camera looks to where the
+    // target is predicted to be at now, a System.nanoTime, like GetAngleToNextAnchor
+    public double GetAngleToTarget(long now) {
+        float dt = (now - publishedAt) / 1e9f;
+        float x = targetX + targetVelocityX * dt;
+        float z = targetZ + targetVelocityZ * dt;
+        double angle = Math.toDegrees(Math.atan2(cameraZ - z, cameraX - x)) - cameraAngle - 90;
+        if (angle > 180) {
+            angle = angle - 360;
+        }
+        if (angle < -180) {
+            angle = angle + 360;
+        }
+        return angle;
+    }
+}
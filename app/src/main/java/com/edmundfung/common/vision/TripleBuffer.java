@@ -0,0 +1,60 @@
+package com.edmundfung.common.vision;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// TripleBuffer passes values from one writer thread to one reader thread without locks or
+// allocation. The writer fills one buffer, one holds the latest published value and the reader
+// owns the third, so neither side ever waits for the other. Publishing and taking are a single
+// atomic swap.
+public class TripleBuffer<T> {
+    // latest holds the index of the published buffer plus fresh when it has not been taken yet
+    private static final int fresh = 4;
+    private static final int indexMask = 3;
+
+    private final Object[] buffers;
+    private final AtomicInteger latest = new AtomicInteger(0);
+    // only used by the writer
+    private int back = 1;
+    // only used by the reader
+    private int front = 2;
+
+    public TripleBuffer(T first, T second, T third) {
+        buffers = new Object[] {first, second, third};
+    }
+
+    // Back returns the buffer the writer may fill before calling Publish
+    @SuppressWarnings("unchecked")
+    public T Back() {
+        return (T) buffers[back];
+    }
+
+    // Publish makes the buffer from Back the latest one. It returns true when the value it
+    // replaced was never taken.
+    public boolean Publish() {
+        int previous = latest.getAndSet(back | fresh);
+        back = previous & indexMask;
+        return (previous & fresh) != 0;
+    }
+
+    public boolean HasFresh() {
+        return (latest.get() & fresh) != 0;
+    }
+
+    // TakeFresh returns the latest value if it was published after the last take, or null. The
+    // value is not touched by the writer until the next take.
+    @SuppressWarnings("unchecked")
+    public T TakeFresh() {
+        if (!HasFresh()) {
+            return null;
+        }
+        front = latest.getAndSet(front) & indexMask;
+        return (T) buffers[front];
+    }
+
+    // Take returns the latest value, which is the last one taken when nothing new was published
+    @SuppressWarnings("unchecked")
+    public T Take() {
+        T value = TakeFresh();
+        return value != null ? value : (T) buffers[front];
+    }
+}
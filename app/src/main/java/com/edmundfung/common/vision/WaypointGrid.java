@@ -0,0 +1,124 @@
+package com.edmundfung.common.vision;
+
+// WaypointGrid is a spatial hash over waypoint positions. Space is cut into cubes the size of the
+// merge radius, so every waypoint within the radius of a point is in one of the 27 cubes around
+// it. Cubes are kept in a fixed open addressing table, so lookups and updates do not allocate.
+// Positions are the ones given to Add; moving a waypoint means removing and adding it again.
+public class WaypointGrid {
+    private static final long emptyKey = Long.MIN_VALUE;
+    // cube coordinates are packed into 21 bits each
+    private static final int coordBits = 21;
+    private static final long coordMask = (1L << coordBits) - 1;
+
+    private final long[] keys;
+    private final ColoredAnchor[] entries;
+    private final int mask;
+    private float cellSize;
+
+    // WaypointGrid holds up to capacity waypoints in cubes of cellSize meters
+    public WaypointGrid(int capacity, float cellSize) {
+        // keep the table at most a quarter full so probes stay short
+        int size = Integer.highestOneBit(Math.max(capacity, 1) * 4 - 1) << 1;
+        keys = new long[size];
+        entries = new ColoredAnchor[size];
+        mask = size - 1;
+        SetCellSize(cellSize);
+    }
+
+    // SetCellSize changes the cube size and empties the grid
+    public void SetCellSize(float size) throws IllegalArgumentException {
+        if (!(size > 0)) {
+            throw new IllegalArgumentException("Cell size must be positive, got " + size);
+        }
+        cellSize = size;
+        Clear();
+    }
+
+    public void Clear() {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = emptyKey;
+            entries[i] = null;
+        }
+    }
+
+    public void Add(ColoredAnchor waypoint) {
+        long key = key(cell(waypoint.position[0]), cell(waypoint.position[1]), cell(waypoint.position[2]));
+        int i = slot(key);
+        while (keys[i] != emptyKey) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        entries[i] = waypoint;
+    }
+
+    // Remove takes waypoint out of the grid. It must still be at the position it was added at.
+    public void Remove(ColoredAnchor waypoint) {
+        long key = key(cell(waypoint.position[0]), cell(waypoint.position[1]), cell(waypoint.position[2]));
+        int i = slot(key);
+        while (keys[i] != emptyKey) {
+            if (entries[i] == waypoint) {
+                deleteAt(i);
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    // Nearest returns the closest waypoint within radius of x, y, z or null. radius must not be
+    // more than the cell size.
+    public ColoredAnchor Nearest(float x, float y, float z, float radius) {
+        int cx = cell(x);
+        int cy = cell(y);
+        int cz = cell(z);
+        ColoredAnchor best = null;
+        float bestDistance = radius * radius;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    long key = key(cx + dx, cy + dy, cz + dz);
+                    for (int i = slot(key); keys[i] != emptyKey; i = (i + 1) & mask) {
+                        if (keys[i] != key) {
+                            continue;
+                        }
+                        float[] p = entries[i].position;
+                        float distance = (p[0] - x) * (p[0] - x) + (p[1] - y) * (p[1] - y) + (p[2] - z) * (p[2] - z);
+                        if (distance <= bestDistance) {
+                            bestDistance = distance;
+                            best = entries[i];
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    // deleteAt empties slot i and shifts back the entries after it that would no longer be found
+    private void deleteAt(int i) {
+        int hole = i;
+        for (int j = (i + 1) & mask; keys[j] != emptyKey; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            // j can fill the hole if its home slot is not between the hole and j
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                entries[hole] = entries[j];
+                hole = j;
+            }
+        }
+        keys[hole] = emptyKey;
+        entries[hole] = null;
+    }
+
+    private int cell(float v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    private static long key(int x, int y, int z) {
+        return ((x & coordMask) << (2 * coordBits)) | ((y & coordMask) << coordBits) | (z & coordMask);
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+}
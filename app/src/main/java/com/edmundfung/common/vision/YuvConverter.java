@@ -0,0 +1,207 @@
+package com.edmundfung.common.vision;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+// YuvConverter turns a YUV_420_888 camera image straight into the float model input. The crop,
+// the bilinear resize and the 90 degree clockwise rotation all happen in a single pass so there
+// is no JPEG round trip and no intermediate Bitmaps. All buffers are reused between frames.
+public class YuvConverter {
+    private static final int fracBits = 10;
+    private static final int fracOne = 1 << fracBits;
+
+    private final int cropSize;
+    private final int outputSize;
+
+    // Reuse java byte arrays to avoid multiple allocations.
+    private byte[] yPixels = new byte[0];
+    private byte[] uPixels = new byte[0];
+    private byte[] vPixels = new byte[0];
+    // one output row, converted here while it is in cache and then put into a FloatBuffer
+    private final float[] row;
+
+    // Sampling tables for the columns and rows of the region
+    private final int[] colLow;
+    private final int[] colHigh;
+    private final int[] colFrac;
+    private final int[] colChromaLow;
+    private final int[] colChromaHigh;
+    private final int[] colChromaFrac;
+    private final int[] rowLow;
+    private final int[] rowHigh;
+    private final int[] rowFrac;
+    private final int[] rowChromaLow;
+    private final int[] rowChromaHigh;
+    private final int[] rowChromaFrac;
+
+    // YuvConverter crops the top left cropSize x cropSize square of the camera image and scales
+    // it to outputSize x outputSize
+    public YuvConverter(int cropSize, int outputSize) {
+        this.cropSize = cropSize;
+        this.outputSize = outputSize;
+        colLow = new int[outputSize];
+        colHigh = new int[outputSize];
+        colFrac = new int[outputSize];
+        colChromaLow = new int[outputSize];
+        colChromaHigh = new int[outputSize];
+        colChromaFrac = new int[outputSize];
+        rowLow = new int[outputSize];
+        rowHigh = new int[outputSize];
+        rowFrac = new int[outputSize];
+        rowChromaLow = new int[outputSize];
+        rowChromaHigh = new int[outputSize];
+        rowChromaFrac = new int[outputSize];
+        row = new float[outputSize * 3];
+        SetRegion(0, 0, cropSize);
+    }
+
+    public int GetOutputSize() {
+        return outputSize;
+    }
+
+    // SetRegion only converts the size x size square at left, top of the crop, in camera pixels.
+    // Regions reaching past the crop are clamped to it.
+    public void SetRegion(float left, float top, float size) {
+        buildTable(left, size, colLow, colHigh, colFrac, 1);
+        buildTable(left, size, colChromaLow, colChromaHigh, colChromaFrac, 2);
+        buildTable(top, size, rowLow, rowHigh, rowFrac, 1);
+        buildTable(top, size, rowChromaLow, rowChromaHigh, rowChromaFrac, 2);
+    }
+
+    // Convert reads the image planes once and writes BGR floats into out
+    public void Convert(Image image, float[] out) throws IllegalArgumentException {
+        Image.Plane[] planes = copyPlanes(image);
+        Convert(yPixels, planes[0].getRowStride(), planes[0].getPixelStride(),
+                uPixels, vPixels, planes[1].getRowStride(), planes[1].getPixelStride(), out);
+    }
+
+    public void Convert(Image image, FloatBuffer out) throws IllegalArgumentException {
+        Image.Plane[] planes = copyPlanes(image);
+        Convert(yPixels, planes[0].getRowStride(), planes[0].getPixelStride(),
+                uPixels, vPixels, planes[1].getRowStride(), planes[1].getPixelStride(), out);
+    }
+
+    // copyPlanes reads the planes of image into yPixels, uPixels and vPixels and returns them
+    private Image.Plane[] copyPlanes(Image image) throws IllegalArgumentException {
+        if (image.getFormat() != ImageFormat.YUV_420_888) {
+            throw new IllegalArgumentException(
+                    "Expected image in YUV_420_888 format, got format " + image.getFormat());
+        }
+        Image.Plane[] planes = image.getPlanes();
+        yPixels = copyPlane(planes[0].getBuffer(), yPixels);
+        uPixels = copyPlane(planes[1].getBuffer(), uPixels);
+        vPixels = copyPlane(planes[2].getBuffer(), vPixels);
+        return planes;
+    }
+
+    // Convert does the work on raw planes. The U and V planes must share a row and pixel stride
+    // which YUV_420_888 guarantees. The output is laid out HWC with channels in B, G, R order.
+    public void Convert(byte[] y, int yRowStride, int yPixelStride,
+                        byte[] u, byte[] v, int uvRowStride, int uvPixelStride,
+                        float[] out) {
+        for (int oy = 0; oy < outputSize; oy++) {
+            convertRow(y, yRowStride, yPixelStride, u, v, uvRowStride, uvPixelStride, oy, out, oy * outputSize * 3);
+        }
+    }
+
+    // Convert writes into a FloatBuffer, e.g. the direct input buffer of a model, from its start.
+    // Every row is put as soon as it is converted so the frame is written only once.
+    public void Convert(byte[] y, int yRowStride, int yPixelStride,
+                        byte[] u, byte[] v, int uvRowStride, int uvPixelStride,
+                        FloatBuffer out) {
+        out.rewind();
+        for (int oy = 0; oy < outputSize; oy++) {
+            convertRow(y, yRowStride, yPixelStride, u, v, uvRowStride, uvPixelStride, oy, row, 0);
+            out.put(row);
+        }
+    }
+
+    // convertRow converts output row oy into out from index o
+    private void convertRow(byte[] y, int yRowStride, int yPixelStride,
+                            byte[] u, byte[] v, int uvRowStride, int uvPixelStride,
+                            int oy, float[] out, int o) {
+        // Rotating clockwise means output row oy comes from source column oy
+        int x0 = colLow[oy] * yPixelStride;
+        int x1 = colHigh[oy] * yPixelStride;
+        int fx = colFrac[oy];
+        int cx0 = colChromaLow[oy] * uvPixelStride;
+        int cx1 = colChromaHigh[oy] * uvPixelStride;
+        int cfx = colChromaFrac[oy];
+        for (int ox = 0; ox < outputSize; ox++) {
+            // ... and output column ox comes from source row (outputSize - 1 - ox)
+            int sy = outputSize - 1 - ox;
+            int r0 = rowLow[sy] * yRowStride;
+            int r1 = rowHigh[sy] * yRowStride;
+            int fy = rowFrac[sy];
+            int luma = lerp2(y[r0 + x0] & 0xFF, y[r0 + x1] & 0xFF,
+                    y[r1 + x0] & 0xFF, y[r1 + x1] & 0xFF, fx, fy);
+
+            int cr0 = rowChromaLow[sy] * uvRowStride;
+            int cr1 = rowChromaHigh[sy] * uvRowStride;
+            int cfy = rowChromaFrac[sy];
+            int cb = lerp2(u[cr0 + cx0] & 0xFF, u[cr0 + cx1] & 0xFF,
+                    u[cr1 + cx0] & 0xFF, u[cr1 + cx1] & 0xFF, cfx, cfy) - (128 << fracBits);
+            int cr = lerp2(v[cr0 + cx0] & 0xFF, v[cr0 + cx1] & 0xFF,
+                    v[cr1 + cx0] & 0xFF, v[cr1 + cx1] & 0xFF, cfx, cfy) - (128 << fracBits);
+
+            // BT.601 full range, the same conversion JPEG uses. Everything here is still
+            // scaled by fracOne so shift back down when clamping.
+            out[o] = clamp((luma << fracBits) + 1814 * cb);                   // B
+            out[o + 1] = clamp((luma << fracBits) - 352 * cb - 731 * cr);     // G
+            out[o + 2] = clamp((luma << fracBits) + 1436 * cr);               // R
+            o += 3;
+        }
+    }
+
+    // buildTable computes, for every output coordinate, the two source samples and the weight of
+    // the second one. subsample is 2 for the chroma planes.
+    private void buildTable(float start, float size, int[] low, int[] high, int[] frac, int subsample) {
+        int last = cropSize / subsample - 1;
+        for (int i = 0; i < outputSize; i++) {
+            // Align pixel centers like Bitmap.createScaledBitmap does. Chroma samples sit in the
+            // middle of their 2x2 luma block.
+            float src = (start + (i + 0.5f) * size / outputSize - 0.5f - (subsample - 1) * 0.5f) / subsample;
+            if (src < 0) {
+                src = 0;
+            }
+            if (src > last) {
+                src = last;
+            }
+            int l = (int) src;
+            low[i] = l;
+            high[i] = l < last ? l + 1 : last;
+            frac[i] = (int) ((src - l) * fracOne);
+        }
+    }
+
+    // lerp2 bilinearly interpolates four samples and returns the result scaled by fracOne
+    private static int lerp2(int a, int b, int c, int d, int fx, int fy) {
+        int top = a * (fracOne - fx) + b * fx;
+        int bottom = c * (fracOne - fx) + d * fx;
+        return (top * (fracOne - fy) + bottom * fy) >> fracBits;
+    }
+
+    private static float clamp(int scaled) {
+        int value = (scaled + (1 << (2 * fracBits - 1))) >> (2 * fracBits);
+        if (value < 0) {
+            return 0;
+        }
+        if (value > 255) {
+            return 255;
+        }
+        return value;
+    }
+
+    // copyPlane copies buffer into pixels, reallocating it only when the size changed
+    static byte[] copyPlane(ByteBuffer buffer, byte[] pixels) {
+        if (buffer.capacity() != pixels.length) {
+            pixels = new byte[buffer.capacity()];
+        }
+        buffer.position(0);
+        buffer.get(pixels);
+        return pixels;
+    }
+}
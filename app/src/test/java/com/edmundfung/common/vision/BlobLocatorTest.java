@@ -0,0 +1,160 @@
+package com.edmundfung.common.vision;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+// BlobLocatorTest compares the two-pass union-find labeling with a plain flood fill over the same
+// marks. Marks stay away from the borders so every point of their encoding block is in the image.
+public class BlobLocatorTest {
+    private static final int areaThreshold = 100;
+    // what Mark sets around a mark at 0, 0, as {column, row}
+    private static final int[][] block = {{0, 0}, {1, 0}, {0, 1}, {1, 1}, {-1, 1}, {-1, 0},
+            {0, -1}, {1, -1}, {-1, -1}, {-2, -1}, {-1, -2}, {-2, -2}};
+
+    @Test
+    public void matchesFloodFill() {
+        Random random = new Random(1);
+        int[][] sizes = {{64, 48, 64}, {160, 120, 168}, {640, 480, 640}, {100, 50, 128}};
+        for (int trial = 0; trial < 40; trial++) {
+            int[] size = sizes[trial % sizes.length];
+            BlobLocator locator = new BlobLocator(size[0], size[1], size[2]);
+            // the locator is reused so the marks of one image must not leak into the next
+            for (int image = 0; image < 2; image++) {
+                check(locator, randomMarks(random, size[0], size[1], size[2], trial % 2 == 0 ? 8 : 30), size[0], size[1], size[2]);
+            }
+        }
+    }
+
+    @Test
+    public void stripesMatchFloodFill() {
+        Random random = new Random(2);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (int trial = 0; trial < 20; trial++) {
+                int stripes = 1 + trial % 7;
+                BlobLocator locator = new BlobLocator(160, 120, 160);
+                locator.SetParallelism(pool, stripes);
+                check(locator, randomMarks(random, 160, 120, 160, trial % 2 == 0 ? 6 : 20), 160, 120, 160);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void blobsAcrossStripeSeams() {
+        // a wide bar and a diagonal line crossing every seam of 5 stripes
+        List<Integer> marks = new ArrayList<>();
+        for (int w = 10; w < 150; w++) {
+            marks.add(60 * 160 + w);
+        }
+        for (int h = 4; h < 116; h++) {
+            marks.add(h * 160 + 20 + h);
+        }
+        int[] j = new int[marks.size()];
+        for (int i = 0; i < j.length; i++) {
+            j[i] = marks.get(i);
+        }
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            BlobLocator locator = new BlobLocator(160, 120, 160);
+            locator.SetParallelism(pool, 5);
+            check(locator, j, 160, 120, 160);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void check(BlobLocator locator, int[] marks, int width, int height, int stride) {
+        for (int j : marks) {
+            locator.Mark(j);
+        }
+        List<Blob> blobs = locator.GetBlobs();
+        List<Blob> expected = floodFill(marks, width, height, stride);
+        assertEquals("blob count", expected.size(), blobs.size());
+        for (int i = 0; i < blobs.size(); i++) {
+            assertEquals("area of blob " + i, expected.get(i).area, blobs.get(i).area);
+            assertArrayEquals("center of blob " + i, expected.get(i).GetCenter(), blobs.get(i).GetCenter());
+            assertArrayEquals("bounds of blob " + i, expected.get(i).GetBounds(), blobs.get(i).GetBounds());
+            assertEquals("orientation of blob " + i, expected.get(i).GetOrientation(), blobs.get(i).GetOrientation(), 1e-9);
+            assertEquals("score of blob " + i, expected.get(i).GetScore(), blobs.get(i).GetScore(), 0);
+        }
+    }
+
+    // floodFill grows the marks into their blocks and finds the 8-connected blobs in the order of
+    // a column by column scan, the way BlobLocator did before it labeled in two passes
+    private static List<Blob> floodFill(int[] marks, int width, int height, int stride) {
+        boolean[] marked = new boolean[width * height];
+        for (int j : marks) {
+            int w = j % stride;
+            int h = j / stride;
+            for (int[] d : block) {
+                marked[(h + d[1]) * width + w + d[0]] = true;
+            }
+        }
+        List<Blob> blobs = new ArrayList<>();
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int w = 0; w < width; w++) {
+            for (int h = 0; h < height; h++) {
+                if (!marked[h * width + w]) {
+                    continue;
+                }
+                Blob blob = new Blob(width, height);
+                marked[h * width + w] = false;
+                queue.add(h * width + w);
+                while (!queue.isEmpty()) {
+                    int p = queue.remove();
+                    int pw = p % width;
+                    int ph = p / width;
+                    blob.AddPoint(pw, ph);
+                    for (int dh = -1; dh <= 1; dh++) {
+                        for (int dw = -1; dw <= 1; dw++) {
+                            int nw = pw + dw;
+                            int nh = ph + dh;
+                            if (nw >= 0 && nh >= 0 && nw < width && nh < height && marked[nh * width + nw]) {
+                                marked[nh * width + nw] = false;
+                                queue.add(nh * width + nw);
+                            }
+                        }
+                    }
+                }
+                if (blob.area > areaThreshold) {
+                    blob.Finish();
+                    blobs.add(blob);
+                }
+            }
+        }
+        return blobs;
+    }
+
+    // randomMarks returns marks clustered around a center plus noise, one per density points
+    private static int[] randomMarks(Random random, int width, int height, int stride, int density) {
+        int[] marks = new int[random.nextInt(width * height / density)];
+        int cw = 2 + random.nextInt(width - 4);
+        int ch = 2 + random.nextInt(height - 4);
+        for (int i = 0; i < marks.length; i++) {
+            int w;
+            int h;
+            if (random.nextBoolean()) {
+                w = random.nextInt(width);
+                h = random.nextInt(height);
+            } else {
+                w = cw + (int) (random.nextGaussian() * width / 10);
+                h = ch + (int) (random.nextGaussian() * height / 10);
+            }
+            // keep the whole block inside the image
+            w = Math.min(Math.max(w, 2), width - 2);
+            h = Math.min(Math.max(h, 2), height - 2);
+            marks[i] = h * stride + w;
+        }
+        return marks;
+    }
+}
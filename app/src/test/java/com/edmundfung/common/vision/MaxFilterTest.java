@@ -0,0 +1,147 @@
+package com.edmundfung.common.vision;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.Vector;
+
+import static org.junit.Assert.assertEquals;
+
+// MaxFilterTest compares the van Herk/Gil-Werman filter and the NMS peaks of PoseDecoder with a
+// brute force search of every window
+public class MaxFilterTest {
+    private static final int mapWidth = 23;
+    private static final int mapHeight = 17;
+
+    @Test
+    public void filterMatchesBruteForce() {
+        Random random = new Random(1);
+        for (int size = 1; size <= 9; size += 2) {
+            MaxFilter filter = new MaxFilter(size, 40);
+            // lines shorter than the window, of a block size and in between
+            for (int n = 1; n <= 40; n++) {
+                float[] line = randomLine(random, n);
+                float[] dst = new float[n];
+                filter.Filter(line, 0, 1, n, dst, 0, 1);
+                for (int i = 0; i < n; i++) {
+                    assertEquals("size " + size + " n " + n + " sample " + i, bruteMax(line, n, i, size / 2), dst[i], 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void filterStridesAndOffsets() {
+        Random random = new Random(2);
+        MaxFilter filter = new MaxFilter(5, 12);
+        float[] src = new float[3 + 12 * 4];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = random.nextInt(6);
+        }
+        float[] dst = new float[2 + 12 * 3];
+        filter.Filter(src, 3, 4, 12, dst, 2, 3);
+        float[] line = new float[12];
+        for (int i = 0; i < 12; i++) {
+            line[i] = src[3 + i * 4];
+        }
+        for (int i = 0; i < 12; i++) {
+            assertEquals("sample " + i, bruteMax(line, 12, i, 2), dst[2 + i * 3], 0);
+        }
+    }
+
+    @Test
+    public void peaksMatchBruteForce() {
+        Random random = new Random(3);
+        for (int filterSize = 3; filterSize <= 5; filterSize += 2) {
+            PoseDecoder decoder = new PoseDecoder(mapWidth, mapHeight, filterSize);
+            for (int round = 0; round < 20; round++) {
+                float[] output = new float[mapWidth * mapHeight * PoseDecoder.ChannelCount];
+                // few distinct values make lots of ties, also across the borders
+                for (int cell = 0; cell < mapWidth * mapHeight; cell++) {
+                    for (int part = 0; part < PoseDecoder.PartCount; part++) {
+                        output[cell * PoseDecoder.ChannelCount + part] = random.nextInt(5) / 8f;
+                    }
+                }
+                decoder.Decode(output, new Vector<Human>());
+                for (int part = 0; part < PoseDecoder.PartCount; part++) {
+                    checkPeaks(decoder, output, part, filterSize / 2);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void peaksOnBordersAndPlateaus() {
+        float[] output = new float[mapWidth * mapHeight * PoseDecoder.ChannelCount];
+        // single peaks in every corner and in the middle of every edge
+        int[][] cells = {{0, 0}, {0, mapWidth - 1}, {mapHeight - 1, 0}, {mapHeight - 1, mapWidth - 1},
+                {0, mapWidth / 2}, {mapHeight / 2, 0}, {mapHeight - 1, mapWidth / 2}, {mapHeight / 2, mapWidth - 1}};
+        for (int[] cell : cells) {
+            output[(cell[0] * mapWidth + cell[1]) * PoseDecoder.ChannelCount] = 0.9f;
+        }
+        // a flat 2x3 plateau where every cell ties for the max
+        for (int row = 7; row < 9; row++) {
+            for (int col = 10; col < 13; col++) {
+                output[(row * mapWidth + col) * PoseDecoder.ChannelCount + 1] = 0.5f;
+            }
+        }
+        PoseDecoder decoder = new PoseDecoder(mapWidth, mapHeight, 3);
+        decoder.Decode(output, new Vector<Human>());
+        assertEquals(cells.length, decoder.GetPeakCount(0));
+        assertEquals(6, decoder.GetPeakCount(1));
+        checkPeaks(decoder, output, 0, 1);
+        checkPeaks(decoder, output, 1, 1);
+    }
+
+    // checkPeaks compares the peaks the decoder found for part with every cell that is the max of
+    // the window of the given radius around it
+    private static void checkPeaks(PoseDecoder decoder, float[] output, int part, int radius) {
+        int expected = 0;
+        for (int row = 0; row < mapHeight; row++) {
+            for (int col = 0; col < mapWidth; col++) {
+                float value = heat(output, part, row, col);
+                if (value <= PoseDecoder.NMS_Threshold || value != bruteMax2D(output, part, row, col, radius)) {
+                    continue;
+                }
+                if (expected == PoseDecoder.MaxPeaks) {
+                    break;
+                }
+                assertEquals("part " + part + " peak " + expected + " row", row, decoder.GetPeakRow(part, expected));
+                assertEquals("part " + part + " peak " + expected + " col", col, decoder.GetPeakCol(part, expected));
+                expected++;
+            }
+        }
+        assertEquals("part " + part + " peak count", expected, decoder.GetPeakCount(part));
+    }
+
+    private static float bruteMax(float[] line, int n, int i, int radius) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (int j = Math.max(i - radius, 0); j <= Math.min(i + radius, n - 1); j++) {
+            max = Math.max(max, line[j]);
+        }
+        return max;
+    }
+
+    private static float bruteMax2D(float[] output, int part, int row, int col, int radius) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (int r = Math.max(row - radius, 0); r <= Math.min(row + radius, mapHeight - 1); r++) {
+            for (int c = Math.max(col - radius, 0); c <= Math.min(col + radius, mapWidth - 1); c++) {
+                max = Math.max(max, heat(output, part, r, c));
+            }
+        }
+        return max;
+    }
+
+    private static float heat(float[] output, int part, int row, int col) {
+        return output[(row * mapWidth + col) * PoseDecoder.ChannelCount + part];
+    }
+
+    private static float[] randomLine(Random random, int n) {
+        float[] line = new float[n];
+        for (int i = 0; i < n; i++) {
+            // negative values too, the ends must not be padded with 0
+            line[i] = random.nextInt(7) - 4;
+        }
+        return line;
+    }
+}
@@ -0,0 +1,76 @@
+package com.edmundfung.common.vision;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+// PoseDecoderAllocationTest makes sure decoding a frame allocates nothing once the decoder and the
+// Vector of humans are warmed up
+public class PoseDecoderAllocationTest {
+    private static final int mapSize = 46;
+    private static final int warmups = 200;
+    private static final int decodes = 100;
+
+    @Test
+    public void decodeAllocatesNothing() {
+        checkDecode(new PoseDecoder(mapSize, mapSize));
+    }
+
+    @Test
+    public void decodeRequiredPartsAllocatesNothing() {
+        PoseDecoder decoder = new PoseDecoder(mapSize, mapSize);
+        decoder.SetRequiredParts(9, 10, 12, 13);
+        checkDecode(decoder);
+    }
+
+    private static void checkDecode(PoseDecoder decoder) {
+        com.sun.management.ThreadMXBean threads = threadBean();
+        long thread = Thread.currentThread().getId();
+        float[][] outputs = outputs();
+        Vector<Human> humans = new Vector<>();
+        for (int i = 0; i < warmups; i++) {
+            decoder.Decode(outputs[i % outputs.length], humans);
+        }
+        assertFalse("the stub person must be found", humans.isEmpty());
+
+        // reading the counter may allocate by itself, so measure that first
+        long before = threads.getThreadAllocatedBytes(thread);
+        long overhead = threads.getThreadAllocatedBytes(thread) - before;
+
+        before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < decodes; i++) {
+            decoder.Decode(outputs[i % outputs.length], humans);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+        decoder.Close();
+        assertEquals("bytes allocated by " + decodes + " decodes", 0, allocated);
+    }
+
+    // outputs returns a few noisy copies of the stub person so not every decode is the same
+    private static float[][] outputs() {
+        StubPoseBackend backend = new StubPoseBackend(mapSize);
+        Random random = new Random(1);
+        float[][] outputs = new float[4][mapSize * mapSize * PoseDecoder.ChannelCount];
+        for (float[] output : outputs) {
+            backend.Run((float[]) null, output);
+            for (int i = 0; i < output.length; i++) {
+                output[i] += (random.nextFloat() - 0.5f) * 0.2f;
+            }
+        }
+        return outputs;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+}
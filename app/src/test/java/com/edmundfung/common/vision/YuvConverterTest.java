@@ -0,0 +1,157 @@
+package com.edmundfung.common.vision;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+// YuvConverterTest checks the fixed point converter against a plain float bilinear resize and
+// rotation of the same planes
+public class YuvConverterTest {
+    private static final int width = 640;
+    private static final int height = 480;
+    // the converter works in 10 bit fixed point, the reference in float, so rounding may differ
+    private static final float tolerance = 1;
+
+    @Test
+    public void wholeCrop() {
+        Planes planes = new Planes(new Random(1), width, 1, 0);
+        checkConvert(planes, 368, 0, 0, height);
+    }
+
+    @Test
+    public void region() {
+        Planes planes = new Planes(new Random(2), width, 1, 0);
+        checkConvert(planes, 256, 37.5f, 110.25f, 203.7f);
+    }
+
+    @Test
+    public void regionPastCrop() {
+        Planes planes = new Planes(new Random(3), width, 1, 0);
+        checkConvert(planes, 224, 400, 300, 300);
+    }
+
+    @Test
+    public void paddedInterleavedPlanes() {
+        // NV21 style chroma with two bytes per sample and padding at the end of every row
+        Planes planes = new Planes(new Random(4), width + 64, 2, 32);
+        checkConvert(planes, 320, 12, 40, 360);
+    }
+
+    @Test
+    public void bufferMatchesArray() {
+        Planes planes = new Planes(new Random(5), width, 1, 0);
+        YuvConverter converter = new YuvConverter(height, 256);
+        converter.SetRegion(20, 30, 250);
+        float[] array = new float[256 * 256 * 3];
+        converter.Convert(planes.y, planes.yRowStride, 1, planes.u, planes.v, planes.uvRowStride, planes.uvPixelStride, array);
+        FloatBuffer buffer = ByteBuffer.allocateDirect(array.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        converter.Convert(planes.y, planes.yRowStride, 1, planes.u, planes.v, planes.uvRowStride, planes.uvPixelStride, buffer);
+        float[] fromBuffer = new float[array.length];
+        buffer.rewind();
+        buffer.get(fromBuffer);
+        assertArrayEquals(array, fromBuffer, 0);
+    }
+
+    private static void checkConvert(Planes planes, int outputSize, float left, float top, float size) {
+        YuvConverter converter = new YuvConverter(height, outputSize);
+        converter.SetRegion(left, top, size);
+        float[] out = new float[outputSize * outputSize * 3];
+        converter.Convert(planes.y, planes.yRowStride, 1, planes.u, planes.v, planes.uvRowStride, planes.uvPixelStride, out);
+
+        float worst = 0;
+        for (int oy = 0; oy < outputSize; oy++) {
+            for (int ox = 0; ox < outputSize; ox++) {
+                // rotated clockwise: output row oy is source column oy, output column ox is
+                // source row outputSize - 1 - ox
+                float[] bgr = planes.Sample(source(left, size, outputSize, oy), source(top, size, outputSize, outputSize - 1 - ox));
+                int o = (oy * outputSize + ox) * 3;
+                for (int c = 0; c < 3; c++) {
+                    worst = Math.max(worst, Math.abs(out[o + c] - bgr[c]));
+                }
+            }
+        }
+        assertTrue("worst difference " + worst, worst <= tolerance);
+    }
+
+    // source returns the luma coordinate sampled for output coordinate i, with pixel centers
+    // aligned and not yet clamped
+    private static float source(float start, float size, int outputSize, int i) {
+        return start + (i + 0.5f) * size / outputSize - 0.5f;
+    }
+
+    // Planes is a random YUV_420_888 image of width x height that is sampled in float
+    private static class Planes {
+        final byte[] y;
+        final byte[] u;
+        final byte[] v;
+        final int yRowStride;
+        final int uvRowStride;
+        final int uvPixelStride;
+
+        Planes(Random random, int yRowStride, int uvPixelStride, int uvPadding) {
+            this.yRowStride = yRowStride;
+            this.uvPixelStride = uvPixelStride;
+            uvRowStride = width / 2 * uvPixelStride + uvPadding;
+            y = new byte[yRowStride * height];
+            u = new byte[uvRowStride * height / 2];
+            v = new byte[uvRowStride * height / 2];
+            // smooth the noise a little so the image looks more like a camera image
+            fill(random, y, yRowStride, 1, width, height);
+            fill(random, u, uvRowStride, uvPixelStride, width / 2, height / 2);
+            fill(random, v, uvRowStride, uvPixelStride, width / 2, height / 2);
+        }
+
+        // Sample returns B, G, R at luma column x and row y, rounded and clamped like a pixel
+        float[] Sample(float x, float y) {
+            float luma = bilinear(this.y, yRowStride, 1, width, x, y);
+            // chroma samples sit in the middle of their 2x2 luma block
+            float cb = bilinear(u, uvRowStride, uvPixelStride, width / 2, (x - 0.5f) / 2, (y - 0.5f) / 2) - 128;
+            float cr = bilinear(v, uvRowStride, uvPixelStride, width / 2, (x - 0.5f) / 2, (y - 0.5f) / 2) - 128;
+            return new float[] {
+                    pixel(luma + 1.772f * cb),
+                    pixel(luma - 0.344136f * cb - 0.714136f * cr),
+                    pixel(luma + 1.402f * cr),
+            };
+        }
+
+        private static float bilinear(byte[] plane, int rowStride, int pixelStride, int planeWidth, float x, float y) {
+            // only the top height x height square of the image is used
+            int last = height * planeWidth / width - 1;
+            x = Math.min(Math.max(x, 0), last);
+            y = Math.min(Math.max(y, 0), last);
+            int x0 = (int) x;
+            int y0 = (int) y;
+            int x1 = Math.min(x0 + 1, last);
+            int y1 = Math.min(y0 + 1, last);
+            float fx = x - x0;
+            float fy = y - y0;
+            float top = at(plane, rowStride, pixelStride, x0, y0) * (1 - fx) + at(plane, rowStride, pixelStride, x1, y0) * fx;
+            float bottom = at(plane, rowStride, pixelStride, x0, y1) * (1 - fx) + at(plane, rowStride, pixelStride, x1, y1) * fx;
+            return top * (1 - fy) + bottom * fy;
+        }
+
+        private static int at(byte[] plane, int rowStride, int pixelStride, int x, int y) {
+            return plane[y * rowStride + x * pixelStride] & 0xFF;
+        }
+
+        private static float pixel(float value) {
+            return Math.min(Math.max(Math.round(value), 0), 255);
+        }
+
+        private static void fill(Random random, byte[] plane, int rowStride, int pixelStride, int w, int h) {
+            int[] row = new int[w];
+            for (int j = 0; j < h; j++) {
+                for (int i = 0; i < w; i++) {
+                    row[i] = (row[i] + random.nextInt(256)) / 2;
+                    plane[j * rowStride + i * pixelStride] = (byte) row[i];
+                }
+            }
+        }
+    }
+}
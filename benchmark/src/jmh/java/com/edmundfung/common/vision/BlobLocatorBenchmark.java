@@ -0,0 +1,117 @@
+package com.edmundfung.common.vision;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// BlobLocatorBenchmark finds the red blobs of camera sized chroma planes, on 1 to 8 stripes of
+// rows with as many threads. The planes have a few red markers on a noisy background. findAll
+// times what BlobFinder.FindAll does after copying the camera image, classifying and labeling,
+// through ChromaBlobFinder. getBlobs only times marking the classified points and labeling them.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BlobLocatorBenchmark {
+    private static final int encodingBlockSize = 2;
+
+    @Param({"640x480", "1920x1080"})
+    public String resolution;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private BlobLocator locator;
+    private int[] marks;
+    private final ChromaBlobFinder finder = new ChromaBlobFinder();
+
+    @Setup
+    public void setup() {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        // YUV_420_888 chroma as most cameras give it: interleaved, so a row of width bytes
+        int stride = width;
+        int pixelStride = 2;
+        byte[] u = new byte[stride * height / 2];
+        byte[] v = new byte[stride * height / 2];
+        Random random = new Random(1);
+        for (int i = 0; i < u.length; i++) {
+            u[i] = (byte) (128 + random.nextInt(9) - 4);
+            v[i] = (byte) (128 + random.nextInt(9) - 4);
+        }
+        // markers of different sizes, in chroma samples
+        float[][] markers = {{0.2f, 0.3f, 0.08f}, {0.6f, 0.5f, 0.05f}, {0.8f, 0.2f, 0.03f}, {0.4f, 0.8f, 0.1f}};
+        for (float[] m : markers) {
+            int cx = (int) (m[0] * width / 2);
+            int cy = (int) (m[1] * height / 2);
+            int r = (int) (m[2] * height / 2);
+            for (int y = Math.max(cy - r, 0); y < Math.min(cy + r, height / 2); y++) {
+                for (int x = Math.max(cx - r, 0); x < Math.min(cx + r, width / 2); x++) {
+                    if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= r * r) {
+                        u[y * stride + x * pixelStride] = (byte) 115;
+                        v[y * stride + x * pixelStride] = (byte) 180;
+                    }
+                }
+            }
+        }
+        marks = classify(ColorTable.Red(), u, v, stride, pixelStride);
+
+        pool = new ForkJoinPool(threads);
+        locator = new BlobLocator(width, height, stride);
+        locator.SetParallelism(threads > 1 ? pool : null, threads);
+        finder.SetPlanes(u, v, width, height, stride, pixelStride);
+        finder.SetParallelism(threads > 1 ? pool : null, threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public List<List<Blob>> findAll() {
+        return finder.FindAll();
+    }
+
+    @Benchmark
+    public List<Blob> getBlobs() {
+        for (int j : marks) {
+            locator.Mark(j);
+        }
+        return locator.GetBlobs();
+    }
+
+    // classify returns what BlobFinder.classify marks for target 0 of colors
+    private static int[] classify(ColorTable colors, byte[] u, byte[] v, int stride, int pixelStride) {
+        int inputEnd = v.length - (stride / encodingBlockSize) - 1;
+        int steps = Math.max(0, (inputEnd - 2 * stride + pixelStride - 1) / pixelStride);
+        int[] found = new int[steps];
+        int count = 0;
+        int j = 2 * stride;
+        int i = 2 * stride;
+        for (int m = 0; m < steps; m++, i += pixelStride) {
+            if (j >= 2 && colors.Classify(u[i], v[i]) == 0) {
+                found[count++] = j;
+            }
+            j += encodingBlockSize;
+            if (j % stride == 0) {
+                j += stride;
+            }
+        }
+        int[] marks = new int[count];
+        System.arraycopy(found, 0, marks, 0, count);
+        return marks;
+    }
+}
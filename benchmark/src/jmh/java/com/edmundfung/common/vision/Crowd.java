@@ -0,0 +1,68 @@
+package com.edmundfung.common.vision;
+
+import java.util.Random;
+
+// Crowd draws model outputs with several people standing side by side, the same way
+// StubPoseBackend draws its one person, plus some noise so peaks and PAFs are not perfect
+public class Crowd {
+    // Part positions of one person as fractions of their box, {row, column}, in Human part order
+    private static final float[][] parts = {
+            {0.15f, 0.50f}, {0.25f, 0.50f}, {0.25f, 0.20f}, {0.40f, 0.12f}, {0.52f, 0.10f}, {0.25f, 0.80f},
+            {0.40f, 0.88f}, {0.52f, 0.90f}, {0.55f, 0.30f}, {0.72f, 0.30f}, {0.88f, 0.30f}, {0.55f, 0.70f},
+            {0.72f, 0.70f}, {0.88f, 0.70f}, {0.13f, 0.42f}, {0.13f, 0.58f}, {0.14f, 0.34f}, {0.14f, 0.66f}};
+
+    // Output returns a mapSize x mapSize output, laid out HWC, with people evenly spread across it
+    public static float[] Output(int mapSize, int people, long seed) {
+        float[] output = new float[mapSize * mapSize * PoseDecoder.ChannelCount];
+        float width = (float) mapSize / people;
+        for (int p = 0; p < people; p++) {
+            draw(output, mapSize, 0.1f * mapSize, p * width, 0.8f * mapSize, width);
+        }
+        Random random = new Random(seed);
+        for (int i = 0; i < output.length; i++) {
+            output[i] += (random.nextFloat() - 0.5f) * 0.1f;
+        }
+        return output;
+    }
+
+    // draw adds one person in the box at top, left of the given height and width, in cells
+    private static void draw(float[] output, int mapSize, float top, float left, float height, float width) {
+        int[][] cells = new int[parts.length][2];
+        for (int i = 0; i < parts.length; i++) {
+            cells[i][0] = Math.min(Math.round(top + parts[i][0] * height), mapSize - 1);
+            cells[i][1] = Math.min(Math.round(left + parts[i][1] * width), mapSize - 1);
+        }
+        for (int i = 0; i < parts.length; i++) {
+            for (int r = Math.max(cells[i][0] - 3, 0); r <= Math.min(cells[i][0] + 3, mapSize - 1); r++) {
+                for (int c = Math.max(cells[i][1] - 3, 0); c <= Math.min(cells[i][1] + 3, mapSize - 1); c++) {
+                    int dr = r - cells[i][0];
+                    int dc = c - cells[i][1];
+                    int o = (r * mapSize + c) * PoseDecoder.ChannelCount + i;
+                    output[o] = Math.max(output[o], (float) Math.exp(-(dr * dr + dc * dc) / 2.0));
+                }
+            }
+        }
+        for (int i = 0; i < PoseDecoder.PairCount; i++) {
+            int[] a = cells[PoseDecoder.CocoPairs[i][0]];
+            int[] b = cells[PoseDecoder.CocoPairs[i][1]];
+            float dr = b[0] - a[0];
+            float dc = b[1] - a[1];
+            float length = (float) Math.sqrt(dr * dr + dc * dc);
+            if (length == 0) {
+                continue;
+            }
+            int rowChannel = PoseDecoder.HeatMapCount + PoseDecoder.CocoPairsNetwork[i][1];
+            int colChannel = PoseDecoder.HeatMapCount + PoseDecoder.CocoPairsNetwork[i][0];
+            for (int r = 0; r < mapSize; r++) {
+                for (int c = 0; c < mapSize; c++) {
+                    float along = ((r - a[0]) * dr + (c - a[1]) * dc) / length;
+                    float across = Math.abs((r - a[0]) * dc - (c - a[1]) * dr) / length;
+                    if (along >= -1 && along <= length + 1 && across <= 1) {
+                        output[(r * mapSize + c) * PoseDecoder.ChannelCount + rowChannel] = dr / length;
+                        output[(r * mapSize + c) * PoseDecoder.ChannelCount + colChannel] = dc / length;
+                    }
+                }
+            }
+        }
+    }
+}
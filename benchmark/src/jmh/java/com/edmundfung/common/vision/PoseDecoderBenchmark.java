@@ -0,0 +1,52 @@
+package com.edmundfung.common.vision;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+// PoseDecoderBenchmark decodes crowds of people at every input size the detector is used at
+// (224, 256, 320 and 368, so maps of 28 to 46 cells) on 1 to 4 limb scoring threads
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PoseDecoderBenchmark {
+    @Param({"28", "32", "40", "46"})
+    public int mapSize;
+
+    @Param({"1", "2", "4", "8"})
+    public int people;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private PoseDecoder decoder;
+    private float[] output;
+    private final Vector<Human> humans = new Vector<>();
+
+    @Setup
+    public void setup() {
+        decoder = new PoseDecoder(mapSize, mapSize);
+        decoder.SetParallelism(threads);
+        output = Crowd.Output(mapSize, people, 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        decoder.Close();
+    }
+
+    @Benchmark
+    public Vector<Human> decode() {
+        decoder.Decode(output, humans);
+        return humans;
+    }
+}
@@ -0,0 +1,146 @@
+package com.edmundfung.common.vision;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// SplitOutputBenchmark compares ways of splitting the HWC model output into channel planes and
+// running the row pass of the NMS filter on the heatmap planes, which is the work of
+// PoseDecoder.splitOutput:
+//   channelOuter  one channel at a time over the whole output, striding ChannelCount floats per
+//                 read, then the row pass over every plane
+//   rowBlocked    one channel at a time over a row that is still in cache, with the row pass on
+//                 the fresh heatmap rows right away (what splitOutput does)
+//   storageOrder  one pass in storage order, scattering each cell to every plane
+//   tiled         rowBlocked in tiles of 8 cells, so a tile is read from L1 once per channel
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SplitOutputBenchmark {
+    private static final int tile = 8;
+
+    @Param({"46"})
+    public int mapSize;
+
+    // whether the row pass of the NMS filter is timed too
+    @Param({"false", "true"})
+    public boolean rowPass;
+
+    private int cells;
+    private float[] output;
+    private float[] heatMaps;
+    private float[] pafMaps;
+    private float[] rowMax;
+    private MaxFilter maxFilter;
+
+    @Setup
+    public void setup() {
+        cells = mapSize * mapSize;
+        output = Crowd.Output(mapSize, 1, 1);
+        heatMaps = new float[PoseDecoder.PartCount * cells];
+        pafMaps = new float[PoseDecoder.PafMapCount * cells];
+        rowMax = new float[PoseDecoder.PartCount * cells];
+        maxFilter = new MaxFilter(3, mapSize);
+    }
+
+    @Benchmark
+    public float[] channelOuter() {
+        for (int c = 0; c < PoseDecoder.PartCount; c++) {
+            for (int cell = 0, o = c; cell < cells; cell++, o += PoseDecoder.ChannelCount) {
+                heatMaps[c * cells + cell] = output[o];
+            }
+        }
+        for (int c = 0; c < PoseDecoder.PafMapCount; c++) {
+            for (int cell = 0, o = PoseDecoder.HeatMapCount + c; cell < cells; cell++, o += PoseDecoder.ChannelCount) {
+                pafMaps[c * cells + cell] = output[o];
+            }
+        }
+        for (int c = 0; rowPass && c < PoseDecoder.PartCount; c++) {
+            for (int j = 0; j < mapSize; j++) {
+                int plane = c * cells + j * mapSize;
+                maxFilter.Filter(heatMaps, plane, 1, mapSize, rowMax, plane, 1);
+            }
+        }
+        return rowMax;
+    }
+
+    @Benchmark
+    public float[] rowBlocked() {
+        for (int j = 0; j < mapSize; j++) {
+            int rowStart = j * mapSize * PoseDecoder.ChannelCount;
+            int cellStart = j * mapSize;
+            for (int c = 0; c < PoseDecoder.PartCount; c++) {
+                int plane = c * cells + cellStart;
+                for (int k = 0, o = rowStart + c; k < mapSize; k++, o += PoseDecoder.ChannelCount) {
+                    heatMaps[plane + k] = output[o];
+                }
+                if (rowPass) {
+                    maxFilter.Filter(heatMaps, plane, 1, mapSize, rowMax, plane, 1);
+                }
+            }
+            for (int c = 0; c < PoseDecoder.PafMapCount; c++) {
+                int plane = c * cells + cellStart;
+                for (int k = 0, o = rowStart + PoseDecoder.HeatMapCount + c; k < mapSize; k++, o += PoseDecoder.ChannelCount) {
+                    pafMaps[plane + k] = output[o];
+                }
+            }
+        }
+        return rowMax;
+    }
+
+    @Benchmark
+    public float[] storageOrder() {
+        int o = 0;
+        for (int j = 0; j < mapSize; j++) {
+            int cellStart = j * mapSize;
+            for (int cell = cellStart; cell < cellStart + mapSize; cell++, o += PoseDecoder.ChannelCount) {
+                for (int c = 0; c < PoseDecoder.PartCount; c++) {
+                    heatMaps[c * cells + cell] = output[o + c];
+                }
+                for (int c = 0; c < PoseDecoder.PafMapCount; c++) {
+                    pafMaps[c * cells + cell] = output[o + PoseDecoder.HeatMapCount + c];
+                }
+            }
+            for (int c = 0; rowPass && c < PoseDecoder.PartCount; c++) {
+                int plane = c * cells + cellStart;
+                maxFilter.Filter(heatMaps, plane, 1, mapSize, rowMax, plane, 1);
+            }
+        }
+        return rowMax;
+    }
+
+    @Benchmark
+    public float[] tiled() {
+        for (int j = 0; j < mapSize; j++) {
+            int cellStart = j * mapSize;
+            for (int k0 = 0; k0 < mapSize; k0 += tile) {
+                int k1 = Math.min(k0 + tile, mapSize);
+                int tileStart = (cellStart + k0) * PoseDecoder.ChannelCount;
+                for (int c = 0; c < PoseDecoder.PartCount; c++) {
+                    int plane = c * cells + cellStart;
+                    for (int k = k0, o = tileStart + c; k < k1; k++, o += PoseDecoder.ChannelCount) {
+                        heatMaps[plane + k] = output[o];
+                    }
+                }
+                for (int c = 0; c < PoseDecoder.PafMapCount; c++) {
+                    int plane = c * cells + cellStart;
+                    for (int k = k0, o = tileStart + PoseDecoder.HeatMapCount + c; k < k1; k++, o += PoseDecoder.ChannelCount) {
+                        pafMaps[plane + k] = output[o];
+                    }
+                }
+            }
+            for (int c = 0; rowPass && c < PoseDecoder.PartCount; c++) {
+                int plane = c * cells + cellStart;
+                maxFilter.Filter(heatMaps, plane, 1, mapSize, rowMax, plane, 1);
+            }
+        }
+        return rowMax;
+    }
+}